@@ -0,0 +1,59 @@
+package havis.device.rf.nur.tools;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the reflected power calculation of the antenna detection
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AntennaDetectorBenchmark {
+
+	private static final int SAMPLES = 1024;
+
+	private final int[] iParts = new int[SAMPLES];
+	private final int[] qParts = new int[SAMPLES];
+	private final AntennaDetector detector = new AntennaDetector(4);
+	private int sample;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		for (int i = 0; i < SAMPLES; i++) {
+			iParts[i] = random.nextInt(2000) - 1000;
+			qParts[i] = random.nextInt(2000) - 1000;
+		}
+	}
+
+	@Benchmark
+	public double toDb() {
+		int i = sample++ & (SAMPLES - 1);
+		return AntennaDetector.toDb(iParts[i], qParts[i], 1000);
+	}
+
+	/**
+	 * Converts and accumulates a sample like <code>-d</code> per reading
+	 */
+	@Benchmark
+	public double addSample() {
+		int i = sample++ & (SAMPLES - 1);
+		detector.add(i & 3, AntennaDetector.toDb(iParts[i], qParts[i], 1000));
+		return detector.getStdDev(i & 3);
+	}
+}
@@ -0,0 +1,71 @@
+package havis.device.rf.nur.tools;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the deduplication of reads in the EPC table of the inventory
+ * stream
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EpcTableBenchmark {
+
+	@Param({ "1024", "65536" })
+	public int tags;
+
+	private EpcTable table;
+	private byte[][] epcs;
+	private int next;
+	private long time;
+
+	@Setup
+	public void setup() {
+		table = new EpcTable(tags, InventoryStream.MAX_EPC_LENGTH);
+		epcs = new byte[2 * tags][];
+		for (int i = 0; i < epcs.length; i++) {
+			byte[] epc = new byte[12];
+			epc[0] = (byte) 0xE2;
+			for (int b = 0; b < 4; b++)
+				epc[11 - b] = (byte) (i >>> (8 * b));
+			epcs[i] = epc;
+		}
+		for (int i = 0; i < tags; i++)
+			table.add(epcs[i], 0, -50, 1);
+	}
+
+	/**
+	 * Reads a tag which is already known
+	 */
+	@Benchmark
+	public boolean addKnown() {
+		return table.add(epcs[next++ & (tags - 1)], ++time, -50, 1);
+	}
+
+	/**
+	 * Reads half known and half new tags, new tags replace expired ones
+	 */
+	@Benchmark
+	public boolean addMixed() {
+		int i = next++;
+		boolean added = table.add(epcs[i & (2 * tags - 1)], ++time, -50, 1);
+		if ((i & (tags - 1)) == 0)
+			table.expire(time, tags);
+		return added;
+	}
+}
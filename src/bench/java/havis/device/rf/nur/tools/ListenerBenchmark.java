@@ -0,0 +1,121 @@
+package havis.device.rf.nur.tools;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nordicid.nurapi.NurEventIOChange;
+import com.nordicid.nurapi.NurEventInventory;
+import com.nordicid.nurapi.NurTag;
+import com.nordicid.nurapi.NurTagStorage;
+
+/**
+ * Measures the work done on the listener thread of the API for IO change
+ * and inventory stream events. The tags of an inventory event are put into
+ * the storage of a simulated module before each event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListenerBenchmark {
+
+	/**
+	 * An inventory stream of a simulated module
+	 */
+	@State(Scope.Thread)
+	public static class Inventory {
+
+		/* the number of distinct tags in the field */
+		private static final int POPULATION = 4096;
+
+		@Param({ "1", "100" })
+		public int tagsPerEvent;
+
+		private SimulatedNurApi nurApi;
+		private InventoryStream stream;
+		private final NurEventInventory event = new NurEventInventory();
+		private final NurTag[] tags = new NurTag[POPULATION];
+		private int next;
+
+		@Setup
+		public void setup() {
+			nurApi = new SimulatedNurApi(SimulatedNurApi.PREFIX + 0, BaudRateNegotiator.DEFAULT_BAUDRATE);
+			stream = new InventoryStream(nurApi, 65536, 0);
+			for (int i = 0; i < POPULATION; i++) {
+				byte[] epc = new byte[12];
+				epc[0] = (byte) 0xE2;
+				epc[10] = (byte) (i >>> 8);
+				epc[11] = (byte) i;
+				tags[i] = new NurTag(i, -50, 50, 0, 866900, epc);
+			}
+			event.rounds = 1;
+		}
+
+		@TearDown
+		public void tearDown() {
+			nurApi.dispose();
+		}
+
+		@Setup(Level.Invocation)
+		public void fillStorage() {
+			NurTagStorage storage = nurApi.getStorage();
+			synchronized (storage) {
+				for (int i = 0; i < tagsPerEvent; i++)
+					storage.addTag(tags[next++ & (POPULATION - 1)]);
+			}
+		}
+	}
+
+	private IoWatcher watcher;
+	private final NurEventIOChange event = new NurEventIOChange();
+	private int next;
+
+	@Setup
+	public void setup() {
+		watcher = new IoWatcher(4096, false);
+		watcher.addOutput(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		});
+		watcher.start();
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		watcher.stop();
+	}
+
+	@Benchmark
+	public void ioChange() {
+		event.source = next++ & 3;
+		event.direction = next & 1;
+		watcher.ioChange(event);
+	}
+
+	@Benchmark
+	public long inventoryStream(Inventory inventory) {
+		inventory.stream.handle(inventory.event);
+		return inventory.stream.getUniqueTags();
+	}
+}
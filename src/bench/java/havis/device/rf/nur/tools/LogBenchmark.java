@@ -0,0 +1,79 @@
+package havis.device.rf.nur.tools;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of a log call for the caller and the formatting
+ * throughput of the writer thread
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogBenchmark {
+
+	private static final int BATCH = 1000;
+
+	@Param({ "false", "true" })
+	public boolean json;
+
+	private Log log;
+
+	@Setup
+	public void setup() {
+		PrintStream discard = new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		});
+		log = new Log(discard, discard, Log.Level.INFO, json, 4 * BATCH);
+	}
+
+	/**
+	 * Queues a message, messages are dropped while the ring is full
+	 */
+	@Benchmark
+	public void log() {
+		log.log(Log.Level.INFO, "/dev/ttyACM0: ", "Current firmware version: 5.11-A");
+	}
+
+	/**
+	 * Skips a message below the level
+	 */
+	@Benchmark
+	public void filtered() {
+		log.log(Log.Level.DEBUG, "/dev/ttyACM0: ", "Current firmware version: 5.11-A");
+	}
+
+	/**
+	 * Queues a batch and waits until it is written
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public boolean logAndFlush() {
+		for (int i = 0; i < BATCH; i++)
+			log.log(Log.Level.INFO, "/dev/ttyACM0: ", "Current firmware version: 5.11-A");
+		return log.flush(1, TimeUnit.SECONDS);
+	}
+}
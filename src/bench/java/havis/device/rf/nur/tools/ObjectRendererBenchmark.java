@@ -0,0 +1,77 @@
+package havis.device.rf.nur.tools;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nordicid.nurapi.NurGPIOConfig;
+import com.nordicid.nurapi.NurRespReaderInfo;
+import com.nordicid.nurapi.NurSetup;
+
+/**
+ * Measures rendering API objects as the configuration dump of
+ * <code>-c</code> does
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectRendererBenchmark {
+
+	private final ObjectRenderer renderer = new ObjectRenderer();
+	private final NurSetup setup = new NurSetup();
+	private final NurRespReaderInfo readerInfo = new NurRespReaderInfo();
+	private final NurGPIOConfig[] gpio = new NurGPIOConfig[5];
+	private int length;
+	private final Consumer<String> lines = new Consumer<String>() {
+		@Override
+		public void accept(String line) {
+			length += line.length();
+		}
+	};
+
+	@Setup
+	public void setup() {
+		readerInfo.serial = "NUR123456";
+		readerInfo.name = "NUR-05WL2";
+		readerInfo.swVersion = "5.11-A";
+		for (int i = 0; i < gpio.length; i++)
+			gpio[i] = new NurGPIOConfig();
+	}
+
+	@Benchmark
+	public int setupText() {
+		length = 0;
+		renderer.text(NurSetup.class, setup, lines);
+		return length;
+	}
+
+	@Benchmark
+	public int readerInfoText() {
+		length = 0;
+		renderer.text(NurRespReaderInfo.class, readerInfo, lines);
+		return length;
+	}
+
+	@Benchmark
+	public String setupJson() {
+		return renderer.json(NurSetup.class, setup);
+	}
+
+	@Benchmark
+	public String gpioJson() {
+		return renderer.json(NurGPIOConfig.class, gpio);
+	}
+}
@@ -0,0 +1,74 @@
+package havis.device.rf.nur.tools;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nordicid.nurapi.NurApi;
+
+/**
+ * Measures the host side of connecting and configuring a module against a
+ * simulated module without command latency
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Dhavis.device.rf.nur.tools.sim.latency=0",
+		"-Dhavis.device.rf.nur.tools.sim.pageTime=0" })
+public class SimulatedModuleBenchmark {
+
+	private static final String DEVICE = SimulatedNurApi.PREFIX + 0;
+
+	private final Main listener = new Main();
+	private final ConnectionManager connectionManager = new ConnectionManager();
+	private final ObjectRenderer renderer = new ObjectRenderer();
+	private NurApi nurApi;
+	private ConfigSnapshot profile;
+
+	@Setup
+	public void setup() throws Exception {
+		connectionManager.setFactory(SimulatedNurApi.FACTORY);
+		nurApi = connectionManager.connect(DEVICE, listener);
+		profile = HardwareProfile.loadResource("4-antennas").getSettings();
+	}
+
+	@TearDown
+	public void tearDown() {
+		ConnectionManager.release(nurApi);
+	}
+
+	/**
+	 * Discovers, connects and releases the module
+	 */
+	@Benchmark
+	public void connect() throws Exception {
+		NurApi api = connectionManager.connect(new SimulatedNurApi.Discovery(null).find(), listener);
+		ConnectionManager.release(api);
+	}
+
+	@Benchmark
+	public String readerInfo() throws Exception {
+		return nurApi.getReaderInfo().swVersion;
+	}
+
+	/**
+	 * Reads the configuration and compares it with a profile like
+	 * <code>-r -p</code>
+	 */
+	@Benchmark
+	public int diffProfile() throws Exception {
+		return ConfigSnapshot.of(nurApi.getGPIOConfigure(), nurApi.getModuleSetup(), renderer).diff(profile).size();
+	}
+}
@@ -0,0 +1,121 @@
+package havis.device.rf.nur.tools;
+
+/**
+ * Collects reflected power samples of antennas and decides whether they are
+ * connected. The statistics are kept in primitive arrays and updated with
+ * Welford's algorithm, so adding a sample does not allocate.
+ */
+class AntennaDetector {
+
+	/* the value of a reflected power of zero */
+	static final double MIN_DB = -30;
+
+	static final String CONNECTED = "CONNECTED";
+	static final String DISCONNECTED = "DISCONNECTED";
+	static final String UNCERTAIN = "UNCERTAIN";
+
+	private final int[] count;
+	private final double[] min;
+	private final double[] max;
+	private final double[] mean;
+	private final double[] m2;
+
+	/**
+	 * Creates a new detector
+	 *
+	 * @param antennas
+	 *            the number of antennas
+	 */
+	AntennaDetector(int antennas) {
+		count = new int[antennas];
+		min = new double[antennas];
+		max = new double[antennas];
+		mean = new double[antennas];
+		m2 = new double[antennas];
+	}
+
+	/**
+	 * Converts a reflected power measurement to dB
+	 *
+	 * @param iPart
+	 *            the I part
+	 * @param qPart
+	 *            the Q part
+	 * @param divider
+	 *            the divider
+	 * @return the reflected power in dB or {@link #MIN_DB} if there is none
+	 */
+	static double toDb(int iPart, int qPart, int divider) {
+		// 20 * log10(sqrt(i^2 + q^2) / divider) without the square root
+		double power = (double) iPart * iPart + (double) qPart * qPart;
+		double db = 10.0 * Math.log10(power / ((double) divider * divider));
+		return Double.isInfinite(db) ? MIN_DB : db;
+	}
+
+	/**
+	 * Adds a sample
+	 *
+	 * @param index
+	 *            the antenna index
+	 * @param db
+	 *            the reflected power in dB
+	 */
+	void add(int index, double db) {
+		int n = ++count[index];
+		if (n == 1) {
+			min[index] = db;
+			max[index] = db;
+		} else {
+			min[index] = Math.min(min[index], db);
+			max[index] = Math.max(max[index], db);
+		}
+		double delta = db - mean[index];
+		mean[index] += delta / n;
+		m2[index] += delta * (db - mean[index]);
+	}
+
+	int getCount(int index) {
+		return count[index];
+	}
+
+	double getMin(int index) {
+		return min[index];
+	}
+
+	double getMax(int index) {
+		return max[index];
+	}
+
+	double getMean(int index) {
+		return mean[index];
+	}
+
+	/**
+	 * @return the sample standard deviation
+	 */
+	double getStdDev(int index) {
+		return count[index] > 1 ? Math.sqrt(m2[index] / (count[index] - 1)) : 0;
+	}
+
+	/**
+	 * Decides the connection state. The antenna is connected if the mean
+	 * reflected power is below the threshold by more than the margin and
+	 * disconnected if it is above by more than the margin.
+	 *
+	 * @param index
+	 *            the antenna index
+	 * @param threshold
+	 *            the threshold in dB
+	 * @param margin
+	 *            the margin in dB
+	 * @return the state
+	 */
+	String decide(int index, double threshold, double margin) {
+		double distance = mean[index] - threshold;
+		if (distance < -margin)
+			return CONNECTED;
+		if (distance > margin || margin == 0 && distance == 0)
+			return DISCONNECTED;
+		return UNCERTAIN;
+	}
+}
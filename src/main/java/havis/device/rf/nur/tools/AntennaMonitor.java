@@ -0,0 +1,182 @@
+package havis.device.rf.nur.tools;
+
+import java.util.Locale;
+
+/**
+ * Keeps the recent reflected power readings of antennas in a fixed size ring
+ * buffer and raises events when an antenna crosses the threshold or the mean
+ * of its readings drifts away from the baseline. The connection state has a
+ * hysteresis band around the threshold, so noise near the threshold does not
+ * toggle it. Adding a reading does not allocate, the state can be read while
+ * sampling continues.
+ */
+class AntennaMonitor {
+
+	/* the default distance in dB of the band edges to the threshold */
+	static final double DEFAULT_MARGIN = 1;
+
+	/**
+	 * Receives the events of the monitor. The events are raised on the
+	 * sampling thread.
+	 */
+	interface Listener {
+
+		/**
+		 * The connection state of an antenna changed
+		 *
+		 * @param antennaId
+		 *            the antenna ID
+		 * @param state
+		 *            the new state
+		 * @param db
+		 *            the reading in dB
+		 */
+		void stateChanged(int antennaId, String state, double db);
+
+		/**
+		 * The mean of the readings drifted away from the baseline
+		 *
+		 * @param antennaId
+		 *            the antenna ID
+		 * @param baseline
+		 *            the baseline in dB
+		 * @param mean
+		 *            the current mean in dB
+		 */
+		void drifted(int antennaId, double baseline, double mean);
+	}
+
+	private final int[] antennaIds;
+	private final int history;
+	private final double threshold;
+	private final double margin;
+	private final double drift;
+	private final Listener listener;
+
+	/* the readings of antenna i are at [i * history, (i + 1) * history) */
+	private final double[] readings;
+	private final int[] next;
+	private final int[] size;
+	private final double[] sum;
+	private final double[] baseline;
+	private final boolean[] connected;
+	private final long[] total;
+
+	/**
+	 * Creates a new monitor
+	 *
+	 * @param antennaIds
+	 *            the antenna IDs
+	 * @param history
+	 *            the number of readings kept per antenna
+	 * @param threshold
+	 *            the reflected power in dB below which an antenna is
+	 *            connected
+	 * @param margin
+	 *            the distance in dB to the threshold a reading has to exceed
+	 *            to change the state, 0 to change it at the threshold
+	 * @param drift
+	 *            the distance in dB of the mean to the baseline which raises
+	 *            a drift event or 0 to disable drift events
+	 * @param listener
+	 *            the listener
+	 */
+	AntennaMonitor(int[] antennaIds, int history, double threshold, double margin, double drift,
+			Listener listener) {
+		this.antennaIds = antennaIds.clone();
+		this.history = history;
+		this.threshold = threshold;
+		this.margin = margin;
+		this.drift = drift;
+		this.listener = listener;
+		this.readings = new double[antennaIds.length * history];
+		this.next = new int[antennaIds.length];
+		this.size = new int[antennaIds.length];
+		this.sum = new double[antennaIds.length];
+		this.baseline = new double[antennaIds.length];
+		this.connected = new boolean[antennaIds.length];
+		this.total = new long[antennaIds.length];
+	}
+
+	/**
+	 * Adds a reading
+	 *
+	 * @param index
+	 *            the antenna index
+	 * @param db
+	 *            the reflected power in dB
+	 */
+	void add(int index, double db) {
+		boolean stateChanged;
+		boolean isConnected;
+		boolean drifted = false;
+		double mean;
+		double previousBaseline = 0;
+		synchronized (this) {
+			int slot = index * history + next[index];
+			if (size[index] == history)
+				sum[index] -= readings[slot];
+			else
+				size[index]++;
+			readings[slot] = db;
+			sum[index] += db;
+			next[index] = (next[index] + 1) % history;
+			if (next[index] == 0) {
+				// avoid accumulating rounding errors
+				sum[index] = 0;
+				for (int j = index * history; j < (index + 1) * history; j++)
+					sum[index] += readings[j];
+			}
+
+			if (total[index] == 0)
+				isConnected = db < threshold;
+			else if (connected[index])
+				isConnected = db <= threshold + margin;
+			else
+				isConnected = db < threshold - margin;
+			stateChanged = total[index]++ == 0 || isConnected != connected[index];
+			connected[index] = isConnected;
+
+			mean = sum[index] / size[index];
+			if (size[index] == history && drift > 0) {
+				if (total[index] == history)
+					baseline[index] = mean;
+				else if (Math.abs(mean - baseline[index]) > drift) {
+					drifted = true;
+					previousBaseline = baseline[index];
+					baseline[index] = mean;
+				}
+			}
+		}
+		if (stateChanged)
+			listener.stateChanged(antennaIds[index], isConnected ? AntennaDetector.CONNECTED
+					: AntennaDetector.DISCONNECTED, db);
+		if (drifted)
+			listener.drifted(antennaIds[index], previousBaseline, mean);
+	}
+
+	/**
+	 * @return the current state of all antennas, one line per antenna
+	 */
+	synchronized String[] snapshot() {
+		String[] lines = new String[antennaIds.length];
+		for (int i = 0; i < antennaIds.length; i++) {
+			if (size[i] == 0) {
+				lines[i] = "Antenna " + antennaIds[i] + ": no readings";
+				continue;
+			}
+			double min = Double.MAX_VALUE;
+			double max = -Double.MAX_VALUE;
+			for (int j = i * history; j < i * history + size[i]; j++) {
+				min = Math.min(min, readings[j]);
+				max = Math.max(max, readings[j]);
+			}
+			int last = i * history + (next[i] + history - 1) % history;
+			lines[i] = String.format(Locale.ROOT,
+					"Antenna %d: %s, last=%.2f, min=%.2f, mean=%.2f, max=%.2f dB over %d of %d readings", antennaIds[i],
+					connected[i] ? AntennaDetector.CONNECTED : AntennaDetector.DISCONNECTED, readings[last], min,
+					sum[i] / size[i], max, size[i], total[i]);
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,125 @@
+package havis.device.rf.nur.tools;
+
+import java.util.function.Consumer;
+
+import com.nordicid.nurapi.NurApi;
+
+/**
+ * Selects single antennas for diagnostics. The antenna mask is only changed
+ * in the volatile setup of the module and never stored. The previous mask is
+ * restored on close and by a shutdown hook if the program exits before.
+ */
+class AntennaSelection implements AutoCloseable {
+
+	private static final int[] MASKS = new int[] { NurApi.ANTENNAMASK_1, NurApi.ANTENNAMASK_2, NurApi.ANTENNAMASK_3,
+			NurApi.ANTENNAMASK_4 };
+
+	private final NurApi nurApi;
+	private final Consumer<String> log;
+	private final int previousMask;
+	private final Thread hook;
+	private int currentMask;
+	private boolean closed;
+
+	/**
+	 * Creates a new selection
+	 *
+	 * @param nurApi
+	 *            the connected API
+	 * @param previousMask
+	 *            the current antenna mask of the module, restored on close
+	 * @param log
+	 *            receives progress messages
+	 */
+	AntennaSelection(NurApi nurApi, int previousMask, Consumer<String> log) {
+		this.nurApi = nurApi;
+		this.log = log;
+		this.previousMask = previousMask;
+		this.currentMask = previousMask;
+		this.hook = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				restore();
+			}
+		}, "restore-antenna-mask");
+		Runtime.getRuntime().addShutdownHook(hook);
+	}
+
+	/**
+	 * @param antennaId
+	 *            the antenna ID from 1 to 4
+	 * @return the antenna mask
+	 */
+	static int getMask(int antennaId) {
+		return MASKS[Math.max(1, Math.min(antennaId, MASKS.length)) - 1];
+	}
+
+	/**
+	 * @return the antenna mask before the selection
+	 */
+	int getPreviousMask() {
+		return previousMask;
+	}
+
+	/**
+	 * Selects an antenna
+	 *
+	 * @param antennaId
+	 *            the antenna ID from 1 to 4
+	 * @throws Exception
+	 *             if the mask could not be set
+	 */
+	void select(int antennaId) throws Exception {
+		selectMask(getMask(antennaId));
+	}
+
+	/**
+	 * Selects several antennas
+	 *
+	 * @param antennaIds
+	 *            the antenna IDs from 1 to 4
+	 * @throws Exception
+	 *             if the mask could not be set
+	 */
+	void select(int[] antennaIds) throws Exception {
+		int mask = 0;
+		for (int antennaId : antennaIds)
+			mask |= getMask(antennaId);
+		selectMask(mask);
+	}
+
+	private synchronized void selectMask(int mask) throws Exception {
+		if (closed)
+			throw new IllegalStateException("Antenna selection is closed");
+		if (currentMask == mask)
+			return;
+		log.accept("Selecting antenna mask: " + Integer.toBinaryString(mask));
+		nurApi.setSetupAntennaMask(mask);
+		currentMask = mask;
+	}
+
+	@Override
+	public void close() {
+		try {
+			Runtime.getRuntime().removeShutdownHook(hook);
+		} catch (IllegalStateException e) {
+			// shutdown in progress, the hook restores the mask
+		}
+		restore();
+	}
+
+	private synchronized void restore() {
+		if (closed)
+			return;
+		closed = true;
+		if (currentMask == previousMask)
+			return;
+		try {
+			log.accept("Restoring antenna mask " + Integer.toBinaryString(previousMask));
+			nurApi.setSetupAntennaMask(previousMask);
+			currentMask = previousMask;
+		} catch (Exception e) {
+			log.accept("Failed to restore antenna mask: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package havis.device.rf.nur.tools;
+
+import java.util.function.Consumer;
+
+/**
+ * Moves module and host to the highest baud rate both sides support. Each
+ * rate is verified after the switch, on errors the link falls back to the
+ * default rate.
+ */
+public class BaudRateNegotiator {
+
+	/**
+	 * The serial link to the module
+	 */
+	public interface Link {
+
+		/**
+		 * Sets the baud rate of the module. The module still answers at the
+		 * current rate before it switches.
+		 *
+		 * @param baudrate
+		 *            the baud rate
+		 * @throws Exception
+		 *             if the module does not support the rate
+		 */
+		void setModuleBaudrate(int baudrate) throws Exception;
+
+		/**
+		 * Reopens the host side of the link with the baud rate
+		 *
+		 * @param baudrate
+		 *            the baud rate
+		 * @throws Exception
+		 *             if the host does not support the rate
+		 */
+		void setHostBaudrate(int baudrate) throws Exception;
+
+		/**
+		 * Checks that the module answers
+		 *
+		 * @throws Exception
+		 *             if the module does not answer
+		 */
+		void verify() throws Exception;
+	}
+
+	public static final int DEFAULT_BAUDRATE = 115200;
+
+	/* the rates of the NUR modules in descending order */
+	public static final int[] BAUDRATES = new int[] { 1500000, 1000000, 500000, 230400 };
+
+	private final Link link;
+	private final Consumer<String> log;
+	private int baudrate = DEFAULT_BAUDRATE;
+
+	/**
+	 * Creates a new negotiator
+	 *
+	 * @param link
+	 *            the link running at the default rate
+	 * @param log
+	 *            receives progress messages
+	 */
+	public BaudRateNegotiator(Link link, Consumer<String> log) {
+		this.link = link;
+		this.log = log;
+	}
+
+	/**
+	 * @return the current baud rate
+	 */
+	public int getBaudrate() {
+		return baudrate;
+	}
+
+	/**
+	 * Switches to the highest working rate
+	 *
+	 * @return the rate, the default rate if no higher rate works
+	 * @throws Exception
+	 *             if the link is lost and cannot be recovered
+	 */
+	public int negotiate() throws Exception {
+		for (int candidate : BAUDRATES) {
+			if (candidate <= baudrate)
+				break;
+			try {
+				long start = System.currentTimeMillis();
+				link.setModuleBaudrate(candidate);
+				link.setHostBaudrate(candidate);
+				link.verify();
+				baudrate = candidate;
+				log.accept("Switched link to " + candidate + " baud in " + (System.currentTimeMillis() - start) + " ms");
+				return baudrate;
+			} catch (Exception e) {
+				log.accept("Baud rate " + candidate + " failed: " + e.getMessage());
+				recover(candidate);
+			}
+		}
+		return baudrate;
+	}
+
+	/**
+	 * Switches back to the default rate
+	 *
+	 * @throws Exception
+	 *             if the link is lost and cannot be recovered
+	 */
+	public void restore() throws Exception {
+		if (baudrate == DEFAULT_BAUDRATE)
+			return;
+		int previous = baudrate;
+		try {
+			link.setModuleBaudrate(DEFAULT_BAUDRATE);
+			link.setHostBaudrate(DEFAULT_BAUDRATE);
+			link.verify();
+			baudrate = DEFAULT_BAUDRATE;
+			log.accept("Restored link to " + DEFAULT_BAUDRATE + " baud");
+		} catch (Exception e) {
+			recover(previous);
+		}
+	}
+
+	/**
+	 * Gets back to the default rate after a failed switch, no matter whether
+	 * the module already switched to the failed rate or not
+	 */
+	private void recover(int failed) throws Exception {
+		try {
+			link.setHostBaudrate(DEFAULT_BAUDRATE);
+			link.verify();
+			baudrate = DEFAULT_BAUDRATE;
+			return;
+		} catch (Exception e) {
+			// the module runs at the failed rate
+		}
+		try {
+			link.setHostBaudrate(failed);
+			link.setModuleBaudrate(DEFAULT_BAUDRATE);
+			link.setHostBaudrate(DEFAULT_BAUDRATE);
+			link.verify();
+			baudrate = DEFAULT_BAUDRATE;
+		} catch (Exception e) {
+			throw new Exception("Lost link to module while switching baud rate", e);
+		}
+	}
+
+	/**
+	 * Estimates the time to transfer data over a serial link with 8N1
+	 * framing
+	 *
+	 * @param bytes
+	 *            the number of bytes
+	 * @param baudrate
+	 *            the baud rate
+	 * @return the time in milliseconds
+	 */
+	public static long estimateTransferTime(long bytes, int baudrate) {
+		return bytes * 10 * 1000 / baudrate;
+	}
+}
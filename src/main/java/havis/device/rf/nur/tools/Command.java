@@ -0,0 +1,88 @@
+package havis.device.rf.nur.tools;
+
+import java.io.File;
+
+/**
+ * A parsed command line, either from the program arguments or from a line of a
+ * script
+ */
+class Command {
+
+	String name;
+	File binFile = null;
+	File configFile = null;
+	String mode = null;
+	int antennaId = 0;
+	int[] antennaIds = null;
+	int samples = 1;
+	double threshold = 0;
+	double margin = 0;
+	boolean interleaved = false;
+	int interval = 1000;
+	int history = 60;
+	double drift = 0;
+	int duration = 0;
+	int window = 0;
+	boolean pretend = false;
+	boolean fast = false;
+	boolean force = false;
+	String installedVersion = null;
+	String profile = null;
+	int[] ios = null;
+	int[] types = null;
+	int[] edges = null;
+	boolean[] states = null;
+	boolean json = false;
+	int port = 0;
+
+	Command(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return whether the command has to connect to the module
+	 */
+	boolean needsDevice() {
+		return !(name.equals("-u") && installedVersion != null);
+	}
+
+	/**
+	 * @return whether the command writes output data which has to be parsed
+	 *         to the standard output
+	 */
+	boolean printsData() {
+		return json || name.equals("-W") && port == 0;
+	}
+
+	/**
+	 * @return the exit code used when the command fails
+	 */
+	int errorCode() {
+		switch (name) {
+		case "-s":
+			return Main.ERR_CODE_MODE_SWITCH_ERROR;
+		case "-f":
+		case "-u":
+		case "-U":
+			return Main.ERR_CODE_APP_UPD_ERROR;
+		case "-b":
+			return Main.ERR_CODE_BOOT_LOADER_UPD_ERROR;
+		case "-r":
+		case "-t":
+		case "-d":
+		case "-m":
+		case "-n":
+		case "-E":
+			return Main.ERR_CODE_CONFIG_RESET_ERROR;
+		case "-c":
+		case "-e":
+		case "-W":
+			return Main.ERR_CODE_CONFIG_DISPLAY_ERROR;
+		case "-g":
+		case "-i":
+			return Main.ERR_CODE_SET_GPIO_ERROR;
+		default:
+			return Main.ERR_CODE_ILLEGAL_ARG;
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package havis.device.rf.nur.tools;
+
+/**
+ * Thrown if the arguments of a command are invalid
+ */
+class CommandException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int code;
+
+	/**
+	 * Creates a new exception
+	 * 
+	 * @param code
+	 *            the exit code
+	 * @param message
+	 *            the message or null if the usage should be printed
+	 */
+	CommandException(int code, String message) {
+		super(message);
+		this.code = code;
+	}
+
+	/**
+	 * @return an exception for arguments which do not match the usage
+	 */
+	static CommandException usage() {
+		return new CommandException(Main.ERR_CODE_BAD_SYNTAX, null);
+	}
+
+	/**
+	 * @return the exit code
+	 */
+	int getCode() {
+		return code;
+	}
+}
@@ -0,0 +1,372 @@
+package havis.device.rf.nur.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.function.Consumer;
+
+import com.nordicid.nurapi.NurApi;
+import com.nordicid.nurapi.NurGPIOConfig;
+import com.nordicid.nurapi.NurSetup;
+
+/**
+ * The writable configuration of a module as flat settings, e.g.
+ * <code>gpio.0.type</code> or <code>setup.txLevel</code>. A snapshot can be
+ * saved to and loaded from a properties file and compared with the settings
+ * of another snapshot. A target snapshot may contain a subset of the
+ * settings, only these are compared. The IR config is not part of the
+ * configuration, as the module keeps it in volatile memory only and there
+ * is no store flag for it.
+ */
+class ConfigSnapshot {
+
+	static final String GPIO = "gpio";
+	static final String SETUP = "setup";
+
+	/* read-only GPIO fields */
+	private static final List<String> GPIO_READ_ONLY = Arrays.asList("available");
+
+	/* the setup flags of the top-level setup fields */
+	private static final Map<String, Integer> SETUP_FLAGS = new HashMap<>();
+
+	static {
+		SETUP_FLAGS.put("linkFreq", NurApi.SETUP_LINKFREQ);
+		SETUP_FLAGS.put("rxDecoding", NurApi.SETUP_RXDEC);
+		SETUP_FLAGS.put("txLevel", NurApi.SETUP_TXLEVEL);
+		SETUP_FLAGS.put("txModulation", NurApi.SETUP_TXMOD);
+		SETUP_FLAGS.put("regionId", NurApi.SETUP_REGION);
+		SETUP_FLAGS.put("inventoryQ", NurApi.SETUP_INVQ);
+		SETUP_FLAGS.put("inventorySession", NurApi.SETUP_INVSESSION);
+		SETUP_FLAGS.put("inventoryRounds", NurApi.SETUP_INVROUNDS);
+		SETUP_FLAGS.put("antennaMask", NurApi.SETUP_ANTMASK);
+		SETUP_FLAGS.put("scanSingleTriggerTimeout", NurApi.SETUP_SCANSINGLETO);
+		SETUP_FLAGS.put("inventoryTriggerTimeout", NurApi.SETUP_INVENTORYTO);
+		SETUP_FLAGS.put("selectedAntenna", NurApi.SETUP_SELECTEDANT);
+		SETUP_FLAGS.put("opFlags", NurApi.SETUP_OPFLAGS);
+		SETUP_FLAGS.put("inventoryTarget", NurApi.SETUP_INVTARGET);
+		SETUP_FLAGS.put("inventoryEpcLength", NurApi.SETUP_INVEPCLEN);
+		SETUP_FLAGS.put("readRssiFilter", NurApi.SETUP_READRSSIFILTER);
+		SETUP_FLAGS.put("writeRssiFilter", NurApi.SETUP_WRITERSSIFILTER);
+		SETUP_FLAGS.put("inventoryRssiFilter", NurApi.SETUP_INVRSSIFILTER);
+		SETUP_FLAGS.put("readTimeout", NurApi.SETUP_READTIMEOUT);
+		SETUP_FLAGS.put("writeTimeout", NurApi.SETUP_WRITETIMEOUT);
+		SETUP_FLAGS.put("lockTimeout", NurApi.SETUP_LOCKTIMEOUT);
+		SETUP_FLAGS.put("killTimeout", NurApi.SETUP_KILLTIMEOUT);
+		SETUP_FLAGS.put("periodSetup", NurApi.SETUP_AUTOPERIOD);
+		SETUP_FLAGS.put("antPower", NurApi.SETUP_PERANTPOWER);
+		SETUP_FLAGS.put("powerOffset", NurApi.SETUP_PERANTOFFSET);
+		SETUP_FLAGS.put("antennaMaskEx", NurApi.SETUP_ANTMASKEX);
+		SETUP_FLAGS.put("autotune", NurApi.SETUP_AUTOTUNE);
+		SETUP_FLAGS.put("antPowerEx", NurApi.SETUP_PERANTPOWER_EX);
+		SETUP_FLAGS.put("rxSensitivity", NurApi.SETUP_RXSENS);
+		SETUP_FLAGS.put("rfProfile", NurApi.SETUP_RFPROFILE);
+	}
+
+	/**
+	 * A setting whose value differs from the target
+	 */
+	static class Change {
+		final String key;
+		final String current;
+		final String target;
+
+		Change(String key, String current, String target) {
+			this.key = key;
+			this.current = current;
+			this.target = target;
+		}
+
+		/**
+		 * @return the group of the setting, e.g. {@link ConfigSnapshot#GPIO}
+		 */
+		String group() {
+			return key.substring(0, key.indexOf('.'));
+		}
+
+		/**
+		 * @return the key without the group
+		 */
+		String path() {
+			return key.substring(key.indexOf('.') + 1);
+		}
+
+		@Override
+		public String toString() {
+			return key + ": " + current + " -> " + target;
+		}
+	}
+
+	private final Map<String, String> settings = new LinkedHashMap<>();
+
+	/**
+	 * Creates a snapshot of the current configuration of a module
+	 *
+	 * @param cfg
+	 *            the GPIO configuration read from the module
+	 * @param setup
+	 *            the module setup read from the module
+	 * @param renderer
+	 *            renders the configuration objects
+	 * @return the snapshot
+	 */
+	static ConfigSnapshot of(NurGPIOConfig[] cfg, NurSetup setup, ObjectRenderer renderer) {
+		ConfigSnapshot snapshot = new ConfigSnapshot();
+		for (int i = 0; i < cfg.length; i++)
+			snapshot.add(GPIO + "." + i + ".", renderer, NurGPIOConfig.class, cfg[i]);
+		snapshot.add(SETUP + ".", renderer, NurSetup.class, setup);
+		return snapshot;
+	}
+
+	private void add(final String prefix, ObjectRenderer renderer, Class<?> clazz, Object object) {
+		renderer.text(clazz, object, new Consumer<String>() {
+			@Override
+			public void accept(String line) {
+				int separator = line.indexOf(": ");
+				String name = line.substring(0, separator);
+				if (prefix.startsWith(GPIO + ".") && GPIO_READ_ONLY.contains(name))
+					return;
+				settings.put(prefix + name, line.substring(separator + 2));
+			}
+		});
+	}
+
+	/**
+	 * Loads a snapshot
+	 *
+	 * @param file
+	 *            the properties file
+	 * @return the snapshot
+	 * @throws IOException
+	 *             if the file could not be read
+	 */
+	static ConfigSnapshot load(Path file) throws IOException {
+		Properties properties = new Properties();
+		try (InputStream stream = Files.newInputStream(file)) {
+			properties.load(stream);
+		}
+		return of(properties);
+	}
+
+	/**
+	 * Creates a snapshot of settings
+	 *
+	 * @param properties
+	 *            the settings
+	 * @return the snapshot
+	 */
+	static ConfigSnapshot of(Properties properties) {
+		List<String> keys = new ArrayList<>(properties.stringPropertyNames());
+		Collections.sort(keys);
+		ConfigSnapshot snapshot = new ConfigSnapshot();
+		for (String key : keys)
+			snapshot.settings.put(key, properties.getProperty(key).trim());
+		return snapshot;
+	}
+
+	/**
+	 * Saves the snapshot with sorted keys
+	 *
+	 * @param file
+	 *            the properties file
+	 * @param comment
+	 *            the comment in the header of the file
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	void save(Path file, String comment) throws IOException {
+		Properties properties = new Properties();
+		properties.putAll(settings);
+		// the stream variant escapes non-Latin-1 characters
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		properties.store(bytes, comment);
+		List<String> header = new ArrayList<>();
+		List<String> lines = new ArrayList<>();
+		for (String line : new String(bytes.toByteArray(), StandardCharsets.ISO_8859_1).split("\\r?\\n"))
+			(line.startsWith("#") ? header : lines).add(line);
+		Collections.sort(lines);
+		header.addAll(lines);
+		Files.write(file, header, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * @return the settings by key
+	 */
+	Map<String, String> getSettings() {
+		return Collections.unmodifiableMap(settings);
+	}
+
+	/**
+	 * Compares the snapshot with a target
+	 *
+	 * @param target
+	 *            the target snapshot
+	 * @return the settings of the target which differ
+	 * @throws IllegalArgumentException
+	 *             if the target contains an unknown setting
+	 */
+	List<Change> diff(ConfigSnapshot target) {
+		List<Change> changes = new ArrayList<>();
+		for (Map.Entry<String, String> entry : target.settings.entrySet()) {
+			String current = settings.get(entry.getKey());
+			if (current == null)
+				throw new IllegalArgumentException("Unknown setting: " + entry.getKey());
+			if (!same(entry.getKey(), current, entry.getValue()))
+				changes.add(new Change(entry.getKey(), current, entry.getValue()));
+		}
+		return changes;
+	}
+
+	/**
+	 * Compares two values of a setting by the type of its field, so numbers
+	 * are equal also if they are written differently, e.g. in hex or as
+	 * "1.0" for a double
+	 */
+	private static boolean same(String key, String current, String target) {
+		if (current.equals(target))
+			return true;
+		Class<?> type = typeOf(key);
+		if (type == null)
+			return false;
+		try {
+			return Objects.deepEquals(parse(type, current), parse(type, target));
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the type of the field of a setting or null if the setting is
+	 *         unknown
+	 */
+	private static Class<?> typeOf(String key) {
+		String[] names = key.split("\\.");
+		Class<?> type = GPIO.equals(names[0]) ? NurGPIOConfig[].class : SETUP.equals(names[0]) ? NurSetup.class : null;
+		try {
+			for (int i = 1; type != null && i < names.length; i++)
+				type = type.isArray() ? type.getComponentType() : type.getField(names[i]).getType();
+			return type;
+		} catch (NoSuchFieldException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param field
+	 *            the name of a setup field
+	 * @return the setup flag which writes the field or 0 if it has none
+	 */
+	static int getSetupFlag(String field) {
+		Integer flag = SETUP_FLAGS.get(field);
+		return flag != null ? flag : 0;
+	}
+
+	/**
+	 * Returns the setup flags which write the changed setup fields
+	 *
+	 * @param changes
+	 *            the changes of the setup group
+	 * @return the flags for {@link NurApi#setModuleSetup(NurSetup, int)}
+	 */
+	static int getSetupFlags(List<Change> changes) {
+		int flags = 0;
+		for (Change change : changes) {
+			String path = change.path();
+			int dot = path.indexOf('.');
+			Integer flag = SETUP_FLAGS.get(dot < 0 ? path : path.substring(0, dot));
+			if (flag == null)
+				throw new IllegalArgumentException("Setting cannot be written: " + change.key);
+			flags |= flag;
+		}
+		return flags;
+	}
+
+	/**
+	 * Assigns the target value of a change to the field of an object. The
+	 * path of the change may address fields of nested objects and elements
+	 * of arrays by their index.
+	 *
+	 * @param object
+	 *            the object or array of the group of the change
+	 * @param change
+	 *            the change
+	 * @throws IllegalArgumentException
+	 *             if the field does not exist or the value cannot be
+	 *             converted
+	 */
+	static void assign(Object object, Change change) {
+		String[] names = change.path().split("\\.");
+		try {
+			for (int i = 0; i < names.length - 1; i++)
+				object = object.getClass().isArray() ? Array.get(object, Integer.parseInt(names[i]))
+						: object.getClass().getField(names[i]).get(object);
+			Field field = object.getClass().getField(names[names.length - 1]);
+			if (Modifier.isFinal(field.getModifiers()))
+				throw new IllegalArgumentException("Setting cannot be written: " + change.key);
+			field.set(object, parse(field.getType(), change.target));
+		} catch (NoSuchFieldException | IllegalAccessException | NullPointerException
+				| ArrayIndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Setting cannot be written: " + change.key);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid value of " + change.key + ": " + change.target);
+		}
+	}
+
+	/**
+	 * Parses a value in the format of {@link ObjectRenderer}
+	 */
+	private static Object parse(Class<?> type, String value) {
+		if (type == String.class)
+			return "null".equals(value) ? null : value;
+		if (type.isArray()) {
+			if ("null".equals(value))
+				return null;
+			String content = value.trim();
+			if (!content.startsWith("[") || !content.endsWith("]"))
+				throw new NumberFormatException(value);
+			content = content.substring(1, content.length() - 1).trim();
+			String[] items = content.isEmpty() ? new String[0] : content.split(",\\s*");
+			Object array = Array.newInstance(type.getComponentType(), items.length);
+			for (int i = 0; i < items.length; i++)
+				Array.set(array, i, parse(type.getComponentType(), items[i]));
+			return array;
+		}
+		if (type == int.class || type == Integer.class)
+			return Integer.decode(value);
+		if (type == long.class || type == Long.class)
+			return Long.decode(value);
+		if (type == short.class || type == Short.class)
+			return Short.decode(value);
+		if (type == byte.class || type == Byte.class)
+			return Byte.decode(value);
+		if (type == double.class || type == Double.class)
+			return Double.valueOf(value);
+		if (type == float.class || type == Float.class)
+			return Float.valueOf(value);
+		if (type == char.class || type == Character.class) {
+			if (value.length() != 1)
+				throw new NumberFormatException(value);
+			return value.charAt(0);
+		}
+		if (type == boolean.class || type == Boolean.class) {
+			if (!"true".equals(value) && !"false".equals(value))
+				throw new NumberFormatException(value);
+			return Boolean.valueOf(value);
+		}
+		throw new IllegalArgumentException("Unsupported type: " + type.getName());
+	}
+}
@@ -0,0 +1,205 @@
+package havis.device.rf.nur.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import com.nordicid.nativeserial.NativeSerialTransport;
+import com.nordicid.nurapi.NurApi;
+import com.nordicid.nurapi.NurApiListener;
+
+/**
+ * Connects to a module. The first attempt is made immediately, further
+ * attempts follow with exponential backoff and jitter until the deadline is
+ * reached. The resources of failed attempts are released before the next
+ * attempt.
+ */
+public class ConnectionManager {
+
+	/**
+	 * A connection attempt
+	 */
+	public static class Attempt {
+		final int number;
+		final long duration;
+		final Exception error;
+
+		Attempt(int number, long duration, Exception error) {
+			this.number = number;
+			this.duration = duration;
+			this.error = error;
+		}
+
+		/**
+		 * @return the duration of the attempt in milliseconds
+		 */
+		public long getDuration() {
+			return duration;
+		}
+
+		/**
+		 * @return the error or null if the attempt succeeded
+		 */
+		public Exception getError() {
+			return error;
+		}
+	}
+
+	private final Random random = new Random();
+
+	private long initialDelay = 100;
+	private long maxDelay = 5000;
+	private long timeout = 60000;
+	private int baudrate = NativeSerialTransport.BAUDRATE_115200;
+	private NurApiFactory factory = NurApiFactory.SERIAL;
+	private Metrics metrics;
+	private Consumer<String> log = new Consumer<String>() {
+		@Override
+		public void accept(String message) {
+		}
+	};
+
+	private final List<Attempt> attempts = new ArrayList<>();
+
+	/**
+	 * @param initialDelay
+	 *            the delay after the first failed attempt in milliseconds
+	 * @param maxDelay
+	 *            the maximum delay between attempts in milliseconds
+	 */
+	public void setDelay(long initialDelay, long maxDelay) {
+		this.initialDelay = initialDelay;
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * @param timeout
+	 *            the overall time in milliseconds after which no further
+	 *            attempt is made
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @param baudrate
+	 *            the baud rate of the transport
+	 */
+	public void setBaudrate(int baudrate) {
+		this.baudrate = baudrate;
+	}
+
+	/**
+	 * @param factory
+	 *            creates the APIs, connects via serial transports by default
+	 */
+	public void setFactory(NurApiFactory factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * @return the factory of the APIs
+	 */
+	public NurApiFactory getFactory() {
+		return factory;
+	}
+
+	/**
+	 * @param metrics
+	 *            records the durations of the attempts or null
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @param log
+	 *            receives progress messages
+	 */
+	public void setLog(Consumer<String> log) {
+		this.log = log;
+	}
+
+	/**
+	 * @return the attempts of the last connect
+	 */
+	public List<Attempt> getAttempts() {
+		return Collections.unmodifiableList(attempts);
+	}
+
+	/**
+	 * Connects to the module
+	 *
+	 * @param device
+	 *            the device
+	 * @param listener
+	 *            the listener
+	 * @return the connected API
+	 * @throws Exception
+	 *             if no attempt succeeded before the deadline
+	 */
+	public NurApi connect(String device, NurApiListener listener) throws Exception {
+		attempts.clear();
+		long start = System.currentTimeMillis();
+		long deadline = start + timeout;
+		long delay = initialDelay;
+		while (true) {
+			long attemptStart = System.currentTimeMillis();
+			NurApi nurApi = null;
+			try {
+				log.accept("Creating transport: " + device);
+				nurApi = factory.create(device, baudrate);
+				nurApi.setListener(listener);
+
+				log.accept("Connecting");
+				nurApi.connect();
+				// probe the module
+				nurApi.getMode();
+
+				long now = System.currentTimeMillis();
+				if (metrics != null)
+					metrics.histogram("connection attempt").record((now - attemptStart) * 1000000);
+				attempts.add(new Attempt(attempts.size() + 1, now - attemptStart, null));
+				log.accept("Connected after " + attempts.size() + " attempt(s) in " + (now - start) + " ms (last attempt "
+						+ (now - attemptStart) + " ms)");
+				return nurApi;
+			} catch (Exception e) {
+				release(nurApi);
+				long now = System.currentTimeMillis();
+				if (metrics != null)
+					metrics.histogram("connection attempt").record((now - attemptStart) * 1000000);
+				attempts.add(new Attempt(attempts.size() + 1, now - attemptStart, e));
+				log.accept("Connection attempt " + attempts.size() + " failed after " + (now - attemptStart) + " ms: "
+						+ e.getMessage());
+				if (now >= deadline)
+					throw new Exception("Failed to connect to " + device + " after " + attempts.size()
+							+ " attempt(s) in " + (now - start) + " ms", e);
+
+				// sleep between half and the full delay
+				long sleep = Math.min(delay / 2 + (long) (random.nextDouble() * delay / 2), deadline - now);
+				Thread.sleep(sleep);
+				delay = Math.min(delay * 2, maxDelay);
+			}
+		}
+	}
+
+	/**
+	 * Releases the resources of an API which was not or is no longer
+	 * connected, disconnecting the API closes its transport
+	 *
+	 * @param nurApi
+	 *            the API or null
+	 */
+	static void release(NurApi nurApi) {
+		if (nurApi == null)
+			return;
+		nurApi.setListener(null);
+		try {
+			nurApi.disconnect();
+		} catch (Exception e) {
+		}
+		nurApi.dispose();
+	}
+}
@@ -0,0 +1,248 @@
+package havis.device.rf.nur.tools;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Accepts commands on a local TCP port. The port is open to all local users,
+ * so each client has to send <code>auth &lt;token&gt;</code> first, the
+ * token is a random secret written to a file which only the owner of the
+ * daemon can read. The connection is closed if the token is wrong,
+ * otherwise the daemon answers <code>= 0</code>. Each following request is
+ * one line with the arguments of a command as on the command line. The response consists of
+ * the output lines of the command, each starting with <code>- </code>, and
+ * a final line <code>= &lt;exit code&gt;</code>, followed by the error
+ * message if the command failed. The requests of all clients are handled
+ * one after another, so only one command accesses the module at a time.
+ * The request <code>ping</code> is answered with <code>= 0</code>,
+ * <code>quit</code> closes the connection and <code>shutdown</code> stops
+ * the daemon.
+ */
+class Daemon {
+
+	/**
+	 * Handles the requests
+	 */
+	interface Handler {
+
+		/**
+		 * Runs a command
+		 *
+		 * @param args
+		 *            the arguments of the command
+		 * @param output
+		 *            receives the output lines of the command
+		 * @return the exit code
+		 * @throws CommandException
+		 *             if the arguments are invalid or the command failed
+		 */
+		int handle(String[] args, Consumer<String> output) throws CommandException;
+	}
+
+	static final String AUTH = "auth";
+	static final String PING = "ping";
+	static final String QUIT = "quit";
+	static final String SHUTDOWN = "shutdown";
+
+	private final int port;
+	private final Path tokenFile;
+	private final Handler handler;
+	private final Consumer<String> log;
+	/* serializes the access to the module */
+	private final ReentrantLock lock = new ReentrantLock(true);
+	private ServerSocket server;
+	private volatile byte[] token;
+
+	/**
+	 * Creates a new daemon
+	 *
+	 * @param port
+	 *            the port on the loopback address
+	 * @param tokenFile
+	 *            the file the token is written to, deleted on shutdown
+	 * @param handler
+	 *            handles the requests
+	 * @param log
+	 *            receives progress messages
+	 */
+	Daemon(int port, Path tokenFile, Handler handler, Consumer<String> log) {
+		this.port = port;
+		this.tokenFile = tokenFile;
+		this.handler = handler;
+		this.log = log;
+	}
+
+	/**
+	 * Accepts clients until the daemon is shut down
+	 *
+	 * @throws IOException
+	 *             if the port could not be bound or the token file could
+	 *             not be written
+	 */
+	void run() throws IOException {
+		server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		try {
+			writeToken();
+			log.accept("Waiting for commands on port " + server.getLocalPort() + ", token in " + tokenFile);
+			while (!server.isClosed()) {
+				final Socket client;
+				try {
+					client = server.accept();
+				} catch (IOException e) {
+					// shut down
+					break;
+				}
+				Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						serve(client);
+					}
+				}, "daemon-" + client.getPort());
+				thread.setDaemon(true);
+				thread.start();
+			}
+		} finally {
+			server.close();
+			Files.deleteIfExists(tokenFile);
+		}
+	}
+
+	/**
+	 * Writes a new random token to the token file
+	 */
+	private void writeToken() throws IOException {
+		byte[] bytes = new byte[16];
+		new SecureRandom().nextBytes(bytes);
+		StringBuilder text = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes)
+			text.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		// the file is created with the permissions, so it is never readable
+		// by other users, and moved in place, so clients never read a
+		// partial token
+		Path parent = tokenFile.toAbsolutePath().getParent();
+		Path temp = Files.createTempFile(parent, ".token", null,
+				PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		try {
+			Files.write(temp, Collections.singletonList(text.toString()), StandardCharsets.US_ASCII);
+			Files.move(temp, tokenFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		token = text.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * @return whether the line authenticates the client
+	 */
+	private boolean isAuthorized(String line) {
+		if (line == null || !line.startsWith(AUTH + " "))
+			return false;
+		// compares in constant time
+		return MessageDigest.isEqual(line.substring(AUTH.length()).trim().getBytes(StandardCharsets.US_ASCII), token);
+	}
+
+	/**
+	 * Stops accepting clients
+	 */
+	void shutdown() {
+		try {
+			server.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+	private void serve(Socket client) {
+		try (Socket socket = client;
+				BufferedReader reader = new BufferedReader(
+						new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+				final Writer writer = new BufferedWriter(
+						new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+			socket.setTcpNoDelay(true);
+			String line = reader.readLine();
+			if (!isAuthorized(line != null ? line.trim() : null)) {
+				respond(writer, "= " + Main.ERR_CODE_ILLEGAL_ARG + " Not authorized");
+				return;
+			}
+			respond(writer, "= 0");
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty())
+					continue;
+				if (line.equals(QUIT))
+					break;
+				if (line.equals(PING)) {
+					respond(writer, "= 0");
+					continue;
+				}
+				if (line.equals(SHUTDOWN)) {
+					respond(writer, "= 0");
+					log.accept("Shutting down");
+					lock.lock();
+					try {
+						shutdown();
+					} finally {
+						lock.unlock();
+					}
+					break;
+				}
+				respond(writer, "= " + execute(line.split("\\s+"), writer));
+			}
+		} catch (IOException e) {
+			// client disconnected
+		}
+	}
+
+	/**
+	 * Executes a request
+	 *
+	 * @return the exit code and the error message if the command failed
+	 */
+	private String execute(String[] args, final Writer writer) {
+		Consumer<String> output = new Consumer<String>() {
+			@Override
+			public void accept(String line) {
+				try {
+					respond(writer, "- " + line);
+				} catch (IOException e) {
+					// the command continues without client
+				}
+			}
+		};
+		lock.lock();
+		try {
+			return Integer.toString(handler.handle(args, output));
+		} catch (CommandException e) {
+			return e.getCode() + " " + (e.getMessage() != null ? e.getMessage() : "Invalid syntax");
+		} catch (RuntimeException e) {
+			return Main.ERR_CODE_ILLEGAL_ARG + " " + e;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static void respond(Writer writer, String line) throws IOException {
+		synchronized (writer) {
+			writer.write(line.replace('\n', ' '));
+			writer.write('\n');
+			writer.flush();
+		}
+	}
+}
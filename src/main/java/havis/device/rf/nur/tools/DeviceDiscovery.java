@@ -0,0 +1,220 @@
+package havis.device.rf.nur.tools;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Discovers device nodes like /dev/ttyACM0. Instead of polling, waiting for a
+ * device uses a watch service on the device directory and returns as soon as
+ * a matching node is created.
+ */
+public class DeviceDiscovery {
+
+	public static final String DEFAULT_PREFIX = "/dev/ttyACM";
+
+	private final Path directory;
+	private final String prefix;
+	private final Predicate<String> filter;
+	private final Supplier<String> hint;
+
+	/**
+	 * Creates a new discovery
+	 *
+	 * @param prefix
+	 *            the path prefix of the device nodes, e.g. /dev/ttyACM
+	 */
+	public DeviceDiscovery(String prefix) {
+		this(prefix, null);
+	}
+
+	/**
+	 * Creates a new discovery
+	 *
+	 * @param prefix
+	 *            the path prefix of the device nodes, e.g. /dev/ttyACM
+	 * @param filter
+	 *            accepts the devices to discover or null to accept all
+	 */
+	public DeviceDiscovery(String prefix, Predicate<String> filter) {
+		this(prefix, filter, null);
+	}
+
+	private DeviceDiscovery(String prefix, Predicate<String> filter, Supplier<String> hint) {
+		Path path = Paths.get(prefix);
+		this.directory = path.getParent() != null ? path.getParent() : Paths.get(".");
+		this.prefix = path.getFileName().toString();
+		this.filter = filter;
+		this.hint = hint;
+	}
+
+	/**
+	 * @param filter
+	 *            accepts the devices to discover
+	 * @return a discovery for the same devices with an additional filter
+	 */
+	public DeviceDiscovery filter(Predicate<String> filter) {
+		return new DeviceDiscovery(directory.resolve(prefix).toString(),
+				this.filter != null ? this.filter.and(filter) : filter, hint);
+	}
+
+	/**
+	 * @param hint
+	 *            supplies the device which is checked before all devices
+	 *            are filtered, e.g. the last known device of a module, or
+	 *            null
+	 * @return a discovery for the same devices, which finds the hinted
+	 *         device first
+	 */
+	public DeviceDiscovery hint(Supplier<String> hint) {
+		return new DeviceDiscovery(directory.resolve(prefix).toString(), filter, hint);
+	}
+
+	/**
+	 * @return the hinted device if it is accepted, otherwise the device
+	 *         with the lowest number or null if none exists
+	 */
+	public String find() {
+		if (hint != null) {
+			String device = hint.get();
+			if (device != null && Files.exists(Paths.get(device)) && accept(Paths.get(device)))
+				return device;
+		}
+		List<String> devices = findAll();
+		return devices.isEmpty() ? null : devices.get(0);
+	}
+
+	/**
+	 * @return all existing devices ordered by their number
+	 */
+	public List<String> findAll() {
+		List<Path> paths = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*")) {
+			for (Path path : stream) {
+				if (accept(path))
+					paths.add(path);
+			}
+		} catch (IOException e) {
+			return Collections.emptyList();
+		}
+		Collections.sort(paths, new Comparator<Path>() {
+			@Override
+			public int compare(Path p1, Path p2) {
+				return Integer.compare(index(p1.getFileName().toString()), index(p2.getFileName().toString()));
+			}
+		});
+		List<String> devices = new ArrayList<>(paths.size());
+		for (Path path : paths)
+			devices.add(path.toString());
+		return devices;
+	}
+
+	/**
+	 * Waits until any device exists
+	 *
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the unit of the timeout
+	 * @return the device with the lowest number or null on timeout
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public String await(long timeout, TimeUnit unit) throws InterruptedException {
+		return await(null, timeout, unit);
+	}
+
+	/**
+	 * Waits until the device exists
+	 *
+	 * @param device
+	 *            the device or null to wait for any device
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the unit of the timeout
+	 * @return the device or null on timeout
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public String await(String device, long timeout, TimeUnit unit) throws InterruptedException {
+		String found = lookup(device);
+		if (found != null || timeout <= 0)
+			return found;
+
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		try (WatchService watcher = directory.getFileSystem().newWatchService()) {
+			directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+			// the device may have been created before the watch was registered
+			if ((found = lookup(device)) != null)
+				return found;
+
+			long remaining;
+			while ((remaining = deadline - System.nanoTime()) > 0) {
+				WatchKey key = watcher.poll(remaining, TimeUnit.NANOSECONDS);
+				if (key == null)
+					break;
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						if ((found = lookup(device)) != null)
+							return found;
+						continue;
+					}
+					String name = event.context().toString();
+					String path = directory.resolve(name).toString();
+					if (device == null ? index(name) >= 0 : device.equals(path)) {
+						// prefer the lowest number if several nodes appeared
+						if ((found = lookup(device)) != null)
+							return found;
+					}
+				}
+				if (!key.reset())
+					break;
+			}
+		} catch (IOException e) {
+			// watching is not supported, fall back to polling
+			return poll(device, deadline);
+		}
+		return lookup(device);
+	}
+
+	private String poll(String device, long deadline) throws InterruptedException {
+		String found;
+		while ((found = lookup(device)) == null && System.nanoTime() < deadline)
+			Thread.sleep(100);
+		return found;
+	}
+
+	private String lookup(String device) {
+		if (device == null)
+			return find();
+		return Files.exists(Paths.get(device)) ? device : null;
+	}
+
+	private boolean accept(Path path) {
+		return index(path.getFileName().toString()) >= 0 && (filter == null || filter.test(path.toString()));
+	}
+
+	private int index(String name) {
+		if (!name.startsWith(prefix) || name.length() == prefix.length())
+			return -1;
+		try {
+			return Integer.parseInt(name.substring(prefix.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
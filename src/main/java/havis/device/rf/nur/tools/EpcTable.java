@@ -0,0 +1,346 @@
+package havis.device.rf.nur.tools;
+
+import java.util.Arrays;
+
+/**
+ * A set of EPCs with read statistics in primitive arrays. EPCs of up to 128
+ * bits are stored inline in a flat long array with open addressing and
+ * linear probing, longer EPCs in an overflow array. The statistics of each
+ * tag are kept in parallel arrays. The table starts small and doubles up to
+ * the capacity, so adding a read only allocates while the table grows or
+ * for a new long EPC. Entries can be expired by the time they were last
+ * seen. If the table is full, new EPCs are dropped.
+ */
+class EpcTable {
+
+	private static final int EMPTY = 0;
+	/* EPCs up to this length in bytes are stored inline */
+	private static final int INLINE_LENGTH = 16;
+	private static final int WORDS = INLINE_LENGTH / 8;
+	private static final int INITIAL_SLOTS = 1024;
+
+	private final int capacity;
+	private final int maxEpcLength;
+	private final int maxSlots;
+	private int mask;
+
+	/* the EPC of slot i is at [i * WORDS, (i + 1) * WORDS) */
+	private long[] epcs;
+	/* the EPCs longer than INLINE_LENGTH, created for the first one */
+	private byte[][] longEpcs;
+	/* the EPC length in bytes, EMPTY for free slots */
+	private byte[] lengths;
+	private int[] hashes;
+	private long[] firstSeen;
+	private long[] lastSeen;
+	private int[] counts;
+	private int[] maxRssi;
+	private byte[] antennas;
+
+	private int size;
+	private long dropped;
+
+	/**
+	 * Creates a new table
+	 *
+	 * @param capacity
+	 *            the maximum number of EPCs
+	 * @param maxEpcLength
+	 *            the maximum EPC length in bytes, longer EPCs are dropped
+	 */
+	EpcTable(int capacity, int maxEpcLength) {
+		this.capacity = capacity;
+		this.maxEpcLength = Math.min(maxEpcLength, 127);
+		// keep the load factor at or below 0.5
+		this.maxSlots = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+		allocate(Math.min(maxSlots, INITIAL_SLOTS));
+	}
+
+	private void allocate(int slots) {
+		mask = slots - 1;
+		epcs = new long[slots * WORDS];
+		longEpcs = null;
+		lengths = new byte[slots];
+		hashes = new int[slots];
+		firstSeen = new long[slots];
+		lastSeen = new long[slots];
+		counts = new int[slots];
+		maxRssi = new int[slots];
+		antennas = new byte[slots];
+	}
+
+	/**
+	 * Adds a read of a tag
+	 *
+	 * @param epc
+	 *            the EPC
+	 * @param time
+	 *            the time of the read
+	 * @param rssi
+	 *            the RSSI
+	 * @param antenna
+	 *            the antenna ID
+	 * @return true if the EPC was added, false if it was already contained
+	 *         or dropped
+	 */
+	boolean add(byte[] epc, long time, int rssi, int antenna) {
+		int length = epc.length;
+		if (length == 0 || length > maxEpcLength) {
+			dropped++;
+			return false;
+		}
+		int hash = hash(epc);
+		int slot = hash & mask;
+		while (lengths[slot] != EMPTY) {
+			if (hashes[slot] == hash && lengths[slot] == length && equals(slot, epc)) {
+				lastSeen[slot] = time;
+				counts[slot]++;
+				if (rssi > maxRssi[slot]) {
+					maxRssi[slot] = rssi;
+					antennas[slot] = (byte) antenna;
+				}
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if (size == capacity) {
+			dropped++;
+			return false;
+		}
+		if ((size + 1) * 2 > mask + 1 && mask + 1 < maxSlots) {
+			grow();
+			slot = hash & mask;
+			while (lengths[slot] != EMPTY)
+				slot = (slot + 1) & mask;
+		}
+		int offset = slot * WORDS;
+		Arrays.fill(epcs, offset, offset + WORDS, 0L);
+		if (length > INLINE_LENGTH) {
+			if (longEpcs == null)
+				longEpcs = new byte[mask + 1][];
+			longEpcs[slot] = epc.clone();
+		} else {
+			for (int i = 0; i < length; i++)
+				epcs[offset + (i >> 3)] |= (epc[i] & 0xFFL) << ((i & 7) << 3);
+		}
+		lengths[slot] = (byte) length;
+		hashes[slot] = hash;
+		firstSeen[slot] = time;
+		lastSeen[slot] = time;
+		counts[slot] = 1;
+		maxRssi[slot] = rssi;
+		antennas[slot] = (byte) antenna;
+		size++;
+		return true;
+	}
+
+	/**
+	 * Doubles the number of slots and reinserts the entries
+	 */
+	private void grow() {
+		long[] oldEpcs = epcs;
+		byte[][] oldLongEpcs = longEpcs;
+		byte[] oldLengths = lengths;
+		int[] oldHashes = hashes;
+		long[] oldFirstSeen = firstSeen;
+		long[] oldLastSeen = lastSeen;
+		int[] oldCounts = counts;
+		int[] oldMaxRssi = maxRssi;
+		byte[] oldAntennas = antennas;
+
+		allocate(oldLengths.length * 2);
+		if (oldLongEpcs != null)
+			longEpcs = new byte[mask + 1][];
+		for (int from = 0; from < oldLengths.length; from++) {
+			if (oldLengths[from] == EMPTY)
+				continue;
+			int to = oldHashes[from] & mask;
+			while (lengths[to] != EMPTY)
+				to = (to + 1) & mask;
+			System.arraycopy(oldEpcs, from * WORDS, epcs, to * WORDS, WORDS);
+			if (oldLongEpcs != null)
+				longEpcs[to] = oldLongEpcs[from];
+			lengths[to] = oldLengths[from];
+			hashes[to] = oldHashes[from];
+			firstSeen[to] = oldFirstSeen[from];
+			lastSeen[to] = oldLastSeen[from];
+			counts[to] = oldCounts[from];
+			maxRssi[to] = oldMaxRssi[from];
+			antennas[to] = oldAntennas[from];
+		}
+	}
+
+	/**
+	 * Removes the EPCs which were not seen within a window
+	 *
+	 * @param now
+	 *            the current time
+	 * @param window
+	 *            the window
+	 * @return the number of removed EPCs
+	 */
+	int expire(long now, long window) {
+		if (size == 0)
+			return 0;
+		int removed = 0;
+		long limit = now - window;
+		// start after a free slot, so no probe sequence wraps around the
+		// start of the scan and removing an entry only shifts entries which
+		// were not visited yet into the current or later slots
+		int start = 0;
+		while (lengths[start] != EMPTY)
+			start++;
+		int visited = 0;
+		int slot = (start + 1) & mask;
+		while (visited <= mask) {
+			if (lengths[slot] != EMPTY && lastSeen[slot] < limit) {
+				remove(slot);
+				removed++;
+				// the slot may hold a shifted entry now
+				continue;
+			}
+			slot = (slot + 1) & mask;
+			visited++;
+		}
+		return removed;
+	}
+
+	/**
+	 * Removes all EPCs
+	 */
+	void clear() {
+		Arrays.fill(lengths, (byte) EMPTY);
+		if (longEpcs != null)
+			Arrays.fill(longEpcs, null);
+		size = 0;
+	}
+
+	/**
+	 * @return the number of EPCs
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of EPCs which were dropped because the table was
+	 *         full or they were too long
+	 */
+	long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * @return the number of slots, use with {@link #isUsed(int)} to iterate
+	 *         over the EPCs
+	 */
+	int slots() {
+		return mask + 1;
+	}
+
+	boolean isUsed(int slot) {
+		return lengths[slot] != EMPTY;
+	}
+
+	long getFirstSeen(int slot) {
+		return firstSeen[slot];
+	}
+
+	long getLastSeen(int slot) {
+		return lastSeen[slot];
+	}
+
+	int getCount(int slot) {
+		return counts[slot];
+	}
+
+	int getMaxRssi(int slot) {
+		return maxRssi[slot];
+	}
+
+	/**
+	 * @return the antenna of the read with the maximum RSSI
+	 */
+	int getAntenna(int slot) {
+		return antennas[slot];
+	}
+
+	/**
+	 * Copies the EPC of a slot
+	 *
+	 * @param slot
+	 *            the slot
+	 * @param target
+	 *            the target with a length of at least the maximum EPC length
+	 * @return the EPC length
+	 */
+	int getEpc(int slot, byte[] target) {
+		int length = lengths[slot];
+		if (length > INLINE_LENGTH) {
+			System.arraycopy(longEpcs[slot], 0, target, 0, length);
+			return length;
+		}
+		int offset = slot * WORDS;
+		for (int i = 0; i < length; i++)
+			target[i] = (byte) (epcs[offset + (i >> 3)] >>> ((i & 7) << 3));
+		return length;
+	}
+
+	private boolean equals(int slot, byte[] epc) {
+		if (epc.length > INLINE_LENGTH)
+			return Arrays.equals(longEpcs[slot], epc);
+		int offset = slot * WORDS;
+		for (int i = 0; i < epc.length; i++) {
+			if ((byte) (epcs[offset + (i >> 3)] >>> ((i & 7) << 3)) != epc[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Removes an entry and shifts the following entries of the probe
+	 * sequence back, so no tombstones are needed
+	 */
+	private void remove(int slot) {
+		int free = slot;
+		int next = (free + 1) & mask;
+		while (lengths[next] != EMPTY) {
+			int home = hashes[next] & mask;
+			// move the entry if its home slot is not between the free slot and
+			// its current slot
+			if (((next - home) & mask) >= ((next - free) & mask)) {
+				move(next, free);
+				free = next;
+			}
+			next = (next + 1) & mask;
+		}
+		lengths[free] = EMPTY;
+		if (longEpcs != null)
+			longEpcs[free] = null;
+		size--;
+	}
+
+	private void move(int from, int to) {
+		System.arraycopy(epcs, from * WORDS, epcs, to * WORDS, WORDS);
+		if (longEpcs != null)
+			longEpcs[to] = longEpcs[from];
+		lengths[to] = lengths[from];
+		hashes[to] = hashes[from];
+		firstSeen[to] = firstSeen[from];
+		lastSeen[to] = lastSeen[from];
+		counts[to] = counts[from];
+		maxRssi[to] = maxRssi[from];
+		antennas[to] = antennas[from];
+	}
+
+	private static int hash(byte[] epc) {
+		// FNV-1a
+		int hash = 0x811C9DC5;
+		for (byte b : epc) {
+			hash ^= b & 0xFF;
+			hash *= 0x01000193;
+		}
+		// spread the bits for the power of two table
+		return hash ^ (hash >>> 16);
+	}
+}
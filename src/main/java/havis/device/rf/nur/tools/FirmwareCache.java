@@ -0,0 +1,123 @@
+package havis.device.rf.nur.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * Caches the version of firmware images, so an image is only parsed once.
+ * An image is looked up by path, size and modification time first, if these
+ * changed the image is identified by its content hash.
+ */
+public class FirmwareCache {
+
+	/**
+	 * Parses an image
+	 */
+	public interface Parser {
+
+		/**
+		 * @param image
+		 *            the image
+		 * @return the version of the image
+		 * @throws Exception
+		 *             if the image is invalid
+		 */
+		String parse(File image) throws Exception;
+	}
+
+	private static final String FILE = "file.";
+	private static final String HASH = "hash.";
+
+	private final Path file;
+	private final Properties cache = new Properties();
+
+	/**
+	 * Creates a new cache
+	 *
+	 * @param file
+	 *            the file the cache is persisted to or null
+	 */
+	public FirmwareCache(Path file) {
+		this.file = file;
+		if (file != null && Files.exists(file)) {
+			try (InputStream stream = Files.newInputStream(file)) {
+				cache.load(stream);
+			} catch (IOException | IllegalArgumentException e) {
+				// unreadable or malformed, the versions are parsed again
+				cache.clear();
+			}
+		}
+	}
+
+	/**
+	 * Gets the version of an image
+	 *
+	 * @param image
+	 *            the image
+	 * @param moduleType
+	 *            the module type the image is for
+	 * @param parser
+	 *            parses the image if it is not cached
+	 * @return the version
+	 * @throws Exception
+	 *             if the image could not be read or parsed
+	 */
+	public synchronized String getVersion(File image, String moduleType, Parser parser) throws Exception {
+		String path = FILE + image.getAbsolutePath();
+		String stat = image.length() + ":" + image.lastModified();
+
+		String entry = cache.getProperty(path);
+		if (entry != null && entry.startsWith(stat + ":")) {
+			String version = cache.getProperty(HASH + entry.substring(stat.length() + 1) + "." + moduleType);
+			if (version != null)
+				return version;
+		}
+
+		String hash = hash(image);
+		String key = HASH + hash + "." + moduleType;
+		String version = cache.getProperty(key);
+		if (version == null) {
+			version = parser.parse(image);
+			cache.setProperty(key, version);
+		}
+		cache.setProperty(path, stat + ":" + hash);
+		store();
+		return version;
+	}
+
+	private void store() {
+		if (file == null)
+			return;
+		try (OutputStream stream = Files.newOutputStream(file)) {
+			cache.store(stream, "Firmware image versions");
+		} catch (IOException e) {
+			// the versions are parsed again next time
+		}
+	}
+
+	private static String hash(File image) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		byte[] buffer = new byte[8192];
+		try (InputStream stream = new DigestInputStream(Files.newInputStream(image.toPath()), digest)) {
+			while (stream.read(buffer) != -1)
+				;
+		}
+		StringBuilder str = new StringBuilder();
+		for (byte b : digest.digest())
+			str.append(String.format("%02x", b));
+		return str.toString();
+	}
+}
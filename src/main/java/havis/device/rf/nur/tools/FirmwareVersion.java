@@ -0,0 +1,109 @@
+package havis.device.rf.nur.tools;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compares firmware versions like "5.11-A". Versions are split into runs of
+ * digits and other characters, digit runs are compared numerically, others
+ * lexicographically. Separators are ignored.
+ */
+public class FirmwareVersion {
+
+	public static final Comparator<String> COMPARATOR = new Comparator<String>() {
+		@Override
+		public int compare(String v1, String v2) {
+			return FirmwareVersion.compare(v1, v2);
+		}
+	};
+
+	private FirmwareVersion() {
+	}
+
+	/**
+	 * Compares two versions
+	 *
+	 * @param v1
+	 *            the first version
+	 * @param v2
+	 *            the second version
+	 * @return a negative number, zero or a positive number if the first
+	 *         version is older, the same or newer than the second
+	 */
+	public static int compare(String v1, String v2) {
+		List<String> t1 = tokenize(v1);
+		List<String> t2 = tokenize(v2);
+		for (int i = 0; i < Math.max(t1.size(), t2.size()); i++) {
+			if (i >= t1.size())
+				return -1;
+			if (i >= t2.size())
+				return 1;
+			String s1 = t1.get(i);
+			String s2 = t2.get(i);
+			boolean n1 = Character.isDigit(s1.charAt(0));
+			boolean n2 = Character.isDigit(s2.charAt(0));
+			int result;
+			if (n1 && n2)
+				result = compareNumbers(s1, s2);
+			else if (n1 != n2)
+				// a number is newer than a suffix, e.g. 5.1.1 vs. 5.1-A
+				result = n1 ? 1 : -1;
+			else
+				result = s1.compareToIgnoreCase(s2);
+			if (result != 0)
+				return result;
+		}
+		return 0;
+	}
+
+	/**
+	 * @param current
+	 *            the current version
+	 * @param candidate
+	 *            the candidate version
+	 * @return "newer", "same" or "older" depending on the candidate relative
+	 *         to the current version
+	 */
+	public static String describe(String current, String candidate) {
+		int result = compare(candidate, current);
+		return result > 0 ? "newer" : result == 0 ? "same" : "older";
+	}
+
+	private static int compareNumbers(String s1, String s2) {
+		// compare without parsing to support any length
+		String a = stripLeadingZeros(s1);
+		String b = stripLeadingZeros(s2);
+		if (a.length() != b.length())
+			return a.length() < b.length() ? -1 : 1;
+		return a.compareTo(b);
+	}
+
+	private static String stripLeadingZeros(String s) {
+		int i = 0;
+		while (i < s.length() - 1 && s.charAt(i) == '0')
+			i++;
+		return s.substring(i);
+	}
+
+	private static List<String> tokenize(String version) {
+		List<String> tokens = new ArrayList<>();
+		if (version == null)
+			return tokens;
+		int start = -1;
+		boolean digits = false;
+		for (int i = 0; i <= version.length(); i++) {
+			char c = i < version.length() ? version.charAt(i) : '.';
+			boolean separator = !Character.isLetterOrDigit(c);
+			if (start >= 0 && (separator || Character.isDigit(c) != digits)) {
+				tokens.add(version.substring(start, i));
+				start = -1;
+			}
+			if (!separator && start < 0) {
+				start = i;
+				digits = Character.isDigit(c);
+			}
+		}
+		return tokens;
+	}
+}
@@ -0,0 +1,230 @@
+package havis.device.rf.nur.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.nordicid.nurapi.NurApi;
+
+/**
+ * The GPIO layout, antennas and setup of a carrier board, loaded from a
+ * properties file. The settings use the keys of {@link ConfigSnapshot}, GPIO
+ * types, edges and actions may be given by the name of their API constant
+ * without prefix, e.g. <code>gpio.0.type=ANTCTL1</code>, the antennas as a
+ * list of antenna IDs, e.g. <code>antennas=1,2</code>. Profiles are
+ * validated when loaded and cached until their file changes.
+ */
+class HardwareProfile {
+
+	/* the location of the built-in profiles */
+	static final String RESOURCE_PATH = "/havis/device/rf/nur/tools/profiles/";
+
+	private static final String NAME = "name";
+	private static final String ANTENNAS = "antennas";
+	private static final String[] GPIO_FIELDS = new String[] { "type", "edge", "action", "enabled" };
+	private static final String[] GPIO_PREFIXES = new String[] { "GPIO_TYPE_", "GPIO_EDGE_", "GPIO_ACT_", null };
+
+	private static final Map<String, HardwareProfile> CACHE = new ConcurrentHashMap<>();
+
+	private final String name;
+	private final String source;
+	private final long lastModified;
+	private final ConfigSnapshot settings;
+
+	private HardwareProfile(String name, String source, long lastModified, ConfigSnapshot settings) {
+		this.name = name;
+		this.source = source;
+		this.lastModified = lastModified;
+		this.settings = settings;
+	}
+
+	/**
+	 * @return the name of the profile
+	 */
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the file or resource of the profile
+	 */
+	String getSource() {
+		return source;
+	}
+
+	/**
+	 * @return the settings with numeric values to compare with and apply to a
+	 *         module
+	 */
+	ConfigSnapshot getSettings() {
+		return settings;
+	}
+
+	/**
+	 * Finds a profile. The profile is either a file or the name of a profile
+	 * in the profile directory or of a built-in profile.
+	 *
+	 * @param profile
+	 *            the file or name
+	 * @param directory
+	 *            the profile directory, may not exist
+	 * @return the validated profile
+	 * @throws IOException
+	 *             if the profile was not found or could not be read
+	 * @throws IllegalArgumentException
+	 *             if the profile is invalid
+	 */
+	static HardwareProfile find(String profile, Path directory) throws IOException {
+		Path file = Paths.get(profile);
+		if (!Files.isRegularFile(file))
+			file = directory.resolve(profile + ".properties");
+		if (Files.isRegularFile(file))
+			return load(file);
+		return loadResource(profile);
+	}
+
+	/**
+	 * Loads a profile file or returns the cached profile if the file did not
+	 * change
+	 *
+	 * @param file
+	 *            the properties file
+	 * @return the validated profile
+	 * @throws IOException
+	 *             if the file could not be read
+	 * @throws IllegalArgumentException
+	 *             if the profile is invalid
+	 */
+	static HardwareProfile load(Path file) throws IOException {
+		String source = file.toAbsolutePath().normalize().toString();
+		long lastModified = Files.getLastModifiedTime(file).toMillis();
+		HardwareProfile cached = CACHE.get(source);
+		if (cached != null && cached.lastModified == lastModified)
+			return cached;
+		Properties properties = new Properties();
+		try (InputStream stream = Files.newInputStream(file)) {
+			properties.load(stream);
+		}
+		HardwareProfile profile = parse(properties, source, lastModified);
+		CACHE.put(source, profile);
+		return profile;
+	}
+
+	/**
+	 * Loads a built-in profile
+	 *
+	 * @param name
+	 *            the name of the profile
+	 * @return the validated profile
+	 * @throws IOException
+	 *             if the profile does not exist
+	 */
+	static HardwareProfile loadResource(String name) throws IOException {
+		String source = RESOURCE_PATH + name + ".properties";
+		HardwareProfile cached = CACHE.get(source);
+		if (cached != null)
+			return cached;
+		Properties properties = new Properties();
+		try (InputStream stream = HardwareProfile.class.getResourceAsStream(source)) {
+			if (stream == null)
+				throw new IOException("Profile '" + name + "' could not be found.");
+			properties.load(stream);
+		}
+		HardwareProfile profile = parse(properties, source, 0);
+		CACHE.put(source, profile);
+		return profile;
+	}
+
+	private static HardwareProfile parse(Properties properties, String source, long lastModified) {
+		List<String> keys = new ArrayList<>(properties.stringPropertyNames());
+		Collections.sort(keys);
+		Properties settings = new Properties();
+		for (String key : keys) {
+			String value = properties.getProperty(key).trim();
+			if (key.equals(NAME))
+				continue;
+			if (key.equals(ANTENNAS))
+				settings.setProperty(ConfigSnapshot.SETUP + ".antennaMask", Integer.toString(parseAntennas(value)));
+			else if (key.startsWith(ConfigSnapshot.GPIO + "."))
+				settings.setProperty(key, parseGpio(key, value));
+			else if (key.startsWith(ConfigSnapshot.SETUP + "."))
+				settings.setProperty(key, value);
+			else
+				throw new IllegalArgumentException("Unknown profile setting: " + key);
+		}
+		if (settings.isEmpty())
+			throw new IllegalArgumentException("Profile " + source + " is empty");
+		return new HardwareProfile(properties.getProperty(NAME, source), source, lastModified,
+				ConfigSnapshot.of(settings));
+	}
+
+	private static int parseAntennas(String value) {
+		int mask = 0;
+		for (String id : value.split("\\s*,\\s*")) {
+			try {
+				int antennaId = Integer.parseInt(id);
+				if (antennaId < 1 || antennaId > 4)
+					throw new IllegalArgumentException("Invalid antenna ID: " + id);
+				mask |= AntennaSelection.getMask(antennaId);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Unrecognized antenna ID: " + id);
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Converts a GPIO setting to its numeric value
+	 */
+	private static String parseGpio(String key, String value) {
+		String[] parts = key.split("\\.");
+		if (parts.length != 3)
+			throw new IllegalArgumentException("Unknown profile setting: " + key);
+		try {
+			if (Integer.parseInt(parts[1]) < 0)
+				throw new NumberFormatException();
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid GPIO in profile setting: " + key);
+		}
+		for (int i = 0; i < GPIO_FIELDS.length; i++) {
+			if (!GPIO_FIELDS[i].equals(parts[2]))
+				continue;
+			if (GPIO_PREFIXES[i] == null) {
+				if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false"))
+					throw new IllegalArgumentException("Invalid value of " + key + ": " + value);
+				return value.toLowerCase(Locale.ROOT);
+			}
+			try {
+				return Integer.toString(Integer.decode(value));
+			} catch (NumberFormatException e) {
+				return Integer.toString(constant(GPIO_PREFIXES[i] + value.toUpperCase(Locale.ROOT), key));
+			}
+		}
+		throw new IllegalArgumentException("Unknown profile setting: " + key);
+	}
+
+	/**
+	 * Resolves an API constant by its name
+	 */
+	private static int constant(String name, String key) {
+		try {
+			return NurApi.class.getField(name).getInt(null);
+		} catch (NoSuchFieldException | IllegalAccessException e) {
+			throw new IllegalArgumentException("Unknown constant for " + key + ": " + name);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return name + " (" + source + ")";
+	}
+}
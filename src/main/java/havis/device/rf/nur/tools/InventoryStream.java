@@ -0,0 +1,189 @@
+package havis.device.rf.nur.tools;
+
+import com.nordicid.nurapi.NurApi;
+import com.nordicid.nurapi.NurEventInventory;
+import com.nordicid.nurapi.NurTag;
+import com.nordicid.nurapi.NurTagStorage;
+
+/**
+ * Runs a stream inventory and measures its throughput. The tag storage is
+ * drained on every stream event, the stream is restarted when the module
+ * stops it. The EPCs are deduplicated in an {@link EpcTable}, so handling
+ * the reads only allocates while the table grows.
+ */
+class InventoryStream {
+
+	/* the maximum EPC length of Gen2 tags */
+	static final int MAX_EPC_LENGTH = 62;
+
+	private final NurApi nurApi;
+	private final EpcTable epcs;
+	private final long window;
+
+	private volatile boolean running;
+	private long reads;
+	private long uniqueTags;
+	private long lastExpiry;
+	private long rounds;
+	private long events;
+	private long lastEvent;
+	private long minRoundLatency = Long.MAX_VALUE;
+	private long maxRoundLatency;
+	private long totalRoundLatency;
+
+	/**
+	 * Creates a new stream
+	 *
+	 * @param nurApi
+	 *            the connected API which forwards its stream events to
+	 *            {@link #handle(NurEventInventory)}
+	 * @param capacity
+	 *            the maximum number of tags kept
+	 * @param window
+	 *            the time in milliseconds after which a tag which was not
+	 *            seen again is removed and counted as new when seen again or
+	 *            0 to keep all tags
+	 */
+	InventoryStream(NurApi nurApi, int capacity, long window) {
+		this.nurApi = nurApi;
+		this.epcs = new EpcTable(capacity, MAX_EPC_LENGTH);
+		this.window = window;
+	}
+
+	/**
+	 * Starts the stream
+	 *
+	 * @throws Exception
+	 *             if the stream could not be started
+	 */
+	void start() throws Exception {
+		nurApi.clearIdBuffer();
+		NurTagStorage storage = nurApi.getStorage();
+		synchronized (storage) {
+			storage.clear();
+		}
+		synchronized (this) {
+			epcs.clear();
+			lastEvent = System.nanoTime();
+			lastExpiry = System.currentTimeMillis();
+		}
+		running = true;
+		nurApi.startInventoryStream();
+	}
+
+	/**
+	 * Stops the stream
+	 *
+	 * @throws Exception
+	 *             if the stream could not be stopped
+	 */
+	void stop() throws Exception {
+		running = false;
+		nurApi.stopInventoryStream();
+	}
+
+	/**
+	 * Handles a stream event
+	 *
+	 * @param event
+	 *            the event
+	 */
+	void handle(NurEventInventory event) {
+		long now = System.nanoTime();
+		long time = System.currentTimeMillis();
+		NurTagStorage storage = nurApi.getStorage();
+		synchronized (this) {
+			synchronized (storage) {
+				for (int i = 0; i < storage.size(); i++) {
+					NurTag tag = storage.get(i);
+					reads += Math.max(1, tag.getUpdateCount());
+					if (epcs.add(tag.getEpc(), time, tag.getRssi(), tag.getAntennaId()))
+						uniqueTags++;
+				}
+				storage.clear();
+			}
+			if (window > 0 && time - lastExpiry >= 1000) {
+				epcs.expire(time, window);
+				lastExpiry = time;
+			}
+			events++;
+			if (event.rounds > 0) {
+				long latency = (now - lastEvent) / event.rounds;
+				minRoundLatency = Math.min(minRoundLatency, latency);
+				maxRoundLatency = Math.max(maxRoundLatency, latency);
+				totalRoundLatency += latency * event.rounds;
+				rounds += event.rounds;
+			}
+			lastEvent = now;
+		}
+		if (event.stopped && running) {
+			try {
+				nurApi.startInventoryStream();
+			} catch (Exception e) {
+				running = false;
+			}
+		}
+	}
+
+	/**
+	 * @return whether the stream is running
+	 */
+	boolean isRunning() {
+		return running;
+	}
+
+	synchronized long getReads() {
+		return reads;
+	}
+
+	/**
+	 * @return the number of tags seen for the first time or again after they
+	 *         expired
+	 */
+	synchronized long getUniqueTags() {
+		return uniqueTags;
+	}
+
+	/**
+	 * @return the number of tags currently kept
+	 */
+	synchronized int getCurrentTags() {
+		return epcs.size();
+	}
+
+	/**
+	 * @return the number of tags dropped as the table was full
+	 */
+	synchronized long getDroppedTags() {
+		return epcs.getDropped();
+	}
+
+	synchronized long getRounds() {
+		return rounds;
+	}
+
+	synchronized long getEvents() {
+		return events;
+	}
+
+	/**
+	 * @return the minimum latency of an inventory round in nanoseconds
+	 */
+	synchronized long getMinRoundLatency() {
+		return rounds > 0 ? minRoundLatency : 0;
+	}
+
+	/**
+	 * @return the maximum latency of an inventory round in nanoseconds
+	 */
+	synchronized long getMaxRoundLatency() {
+		return maxRoundLatency;
+	}
+
+	/**
+	 * @return the mean latency of an inventory round in nanoseconds
+	 */
+	synchronized long getMeanRoundLatency() {
+		return rounds > 0 ? totalRoundLatency / rounds : 0;
+	}
+}
@@ -0,0 +1,370 @@
+package havis.device.rf.nur.tools;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.nordicid.nurapi.NurEventIOChange;
+import com.nordicid.nurapi.NurEventTriggeredRead;
+
+/**
+ * Writes the IO change and triggered read events of a module as lines to
+ * outputs. The events are copied by the listener thread into a preallocated
+ * single producer, single consumer ring and written by a background thread,
+ * so neither side allocates or waits for the other. If the ring is full,
+ * events are dropped and counted. The timestamps are taken from the
+ * monotonic clock when the event is received, the latency from receiving an
+ * event until it is flushed to the outputs is measured.
+ */
+class IoWatcher {
+
+	private static final byte IO_CHANGE = 0;
+	private static final byte TRIGGERED_READ = 1;
+
+	/* flush the output buffer if less space remains */
+	private static final int LINE_RESERVE = 512;
+
+	private final boolean json;
+	private final List<OutputStream> outputs = new CopyOnWriteArrayList<>();
+	private final long start = System.nanoTime();
+
+	private final int mask;
+	private final long[] times;
+	private final byte[] kinds;
+	private final int[] sources;
+	private final int[] directions;
+	private final boolean[] sensors;
+	private final int[] antennas;
+	private final int[] rssis;
+	private final String[] epcs;
+	/* the next slot to write, only changed by the listener thread */
+	private final AtomicLong head = new AtomicLong();
+	/* the next slot to read, only changed by the writer thread */
+	private final AtomicLong tail = new AtomicLong();
+	private volatile long dropped;
+
+	/* only used by the writer thread */
+	private final StringBuilder line = new StringBuilder(LINE_RESERVE);
+	private final byte[] buffer = new byte[65536];
+	private final long[] batch;
+
+	private long count;
+	private long minLatency = Long.MAX_VALUE;
+	private long maxLatency;
+	private long totalLatency;
+
+	private volatile boolean running;
+	private volatile Thread writer;
+	private ServerSocket server;
+	/* the accepted clients, guarded by itself */
+	private final List<Socket> clients = new ArrayList<>();
+
+	/**
+	 * Creates a new watcher
+	 *
+	 * @param capacity
+	 *            the number of events the ring holds, rounded up to a power
+	 *            of two
+	 * @param json
+	 *            whether to write JSON lines
+	 */
+	IoWatcher(int capacity, boolean json) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		this.json = json;
+		this.mask = size - 1;
+		this.times = new long[size];
+		this.kinds = new byte[size];
+		this.sources = new int[size];
+		this.directions = new int[size];
+		this.sensors = new boolean[size];
+		this.antennas = new int[size];
+		this.rssis = new int[size];
+		this.epcs = new String[size];
+		this.batch = new long[size];
+	}
+
+	/**
+	 * Adds an output
+	 *
+	 * @param output
+	 *            the output, e.g. stdout
+	 */
+	void addOutput(OutputStream output) {
+		outputs.add(output);
+	}
+
+	/**
+	 * Accepts clients on a local port, the events are written to all
+	 * connected clients
+	 *
+	 * @param port
+	 *            the port on the loopback address
+	 * @throws IOException
+	 *             if the port could not be bound
+	 */
+	void listen(int port) throws IOException {
+		server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (!server.isClosed()) {
+					try {
+						Socket client = server.accept();
+						client.setTcpNoDelay(true);
+						client.shutdownInput();
+						synchronized (clients) {
+							if (server.isClosed()) {
+								client.close();
+								return;
+							}
+							clients.add(client);
+							outputs.add(client.getOutputStream());
+						}
+					} catch (IOException e) {
+						// closed
+					}
+				}
+			}
+		}, "io-watch-accept");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * Starts the writer thread
+	 */
+	void start() {
+		running = true;
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				write();
+			}
+		}, "io-watch-writer");
+		thread.setDaemon(true);
+		writer = thread;
+		thread.start();
+	}
+
+	/**
+	 * Stops the writer thread after the queued events were written and
+	 * closes the server socket and the connections of the clients
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the writer thread
+	 */
+	void stop() throws InterruptedException {
+		running = false;
+		Thread thread = writer;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+			thread.join();
+		}
+		if (server != null) {
+			try {
+				server.close();
+			} catch (IOException e) {
+				// ignore
+			}
+			synchronized (clients) {
+				for (Socket client : clients) {
+					try {
+						outputs.remove(client.getOutputStream());
+						client.close();
+					} catch (IOException e) {
+						// ignore
+					}
+				}
+				clients.clear();
+			}
+		}
+	}
+
+	/**
+	 * Queues an IO change, called by the listener thread
+	 *
+	 * @param event
+	 *            the event
+	 */
+	void ioChange(NurEventIOChange event) {
+		long now = System.nanoTime();
+		long h = head.get();
+		if (h - tail.get() > mask) {
+			dropped++;
+			return;
+		}
+		int slot = (int) (h & mask);
+		times[slot] = now;
+		kinds[slot] = IO_CHANGE;
+		sources[slot] = event.source;
+		directions[slot] = event.direction;
+		sensors[slot] = event.sensor;
+		publish(h);
+	}
+
+	/**
+	 * Queues a triggered read, called by the listener thread
+	 *
+	 * @param event
+	 *            the event
+	 */
+	void triggeredRead(NurEventTriggeredRead event) {
+		long now = System.nanoTime();
+		long h = head.get();
+		if (h - tail.get() > mask) {
+			dropped++;
+			return;
+		}
+		int slot = (int) (h & mask);
+		times[slot] = now;
+		kinds[slot] = TRIGGERED_READ;
+		sources[slot] = event.source;
+		sensors[slot] = event.sensor;
+		antennas[slot] = event.antennaId;
+		rssis[slot] = event.rssi;
+		epcs[slot] = event.epc;
+		publish(h);
+	}
+
+	private void publish(long h) {
+		// the ordered write publishes the slot to the writer thread
+		head.lazySet(h + 1);
+		Thread thread = writer;
+		if (thread != null)
+			LockSupport.unpark(thread);
+	}
+
+	private void write() {
+		while (true) {
+			long t = tail.get();
+			long h = head.get();
+			if (t == h) {
+				if (!running)
+					return;
+				LockSupport.parkNanos(this, 100000000L);
+				continue;
+			}
+			int length = 0;
+			int events = 0;
+			for (; t < h; t++) {
+				int slot = (int) (t & mask);
+				batch[events++] = times[slot];
+				format(slot);
+				if (length + line.length() > buffer.length - LINE_RESERVE) {
+					flush(length);
+					length = 0;
+				}
+				for (int i = 0; i < line.length(); i++)
+					buffer[length++] = (byte) line.charAt(i);
+			}
+			// the slots are copied, release them to the listener thread
+			tail.lazySet(h);
+			flush(length);
+			long now = System.nanoTime();
+			synchronized (this) {
+				for (int i = 0; i < events; i++) {
+					long latency = now - batch[i];
+					minLatency = Math.min(minLatency, latency);
+					maxLatency = Math.max(maxLatency, latency);
+					totalLatency += latency;
+				}
+				count += events;
+			}
+		}
+	}
+
+	private void flush(int length) {
+		for (OutputStream output : outputs) {
+			try {
+				output.write(buffer, 0, length);
+				output.flush();
+			} catch (IOException e) {
+				// client disconnected
+				outputs.remove(output);
+				try {
+					output.close();
+				} catch (IOException ex) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	private void format(int slot) {
+		long nanos = times[slot] - start;
+		line.setLength(0);
+		if (json) {
+			line.append("{\"time\":").append(nanos).append(",\"type\":\"")
+					.append(kinds[slot] == IO_CHANGE ? "io" : "read").append("\",\"source\":").append(sources[slot])
+					.append(",\"sensor\":").append(sensors[slot]);
+			if (kinds[slot] == IO_CHANGE)
+				line.append(",\"direction\":").append(directions[slot]);
+			else {
+				line.append(",\"antenna\":").append(antennas[slot]).append(",\"rssi\":").append(rssis[slot])
+						.append(",\"epc\":");
+				if (epcs[slot] == null)
+					line.append("null");
+				else
+					line.append('"').append(epcs[slot]).append('"');
+			}
+			line.append("}\n");
+		} else {
+			// seconds since the start with microseconds
+			long micros = nanos / 1000;
+			line.append(micros / 1000000).append('.');
+			long fraction = micros % 1000000;
+			for (long digit = 100000; digit > 1 && fraction < digit; digit /= 10)
+				line.append('0');
+			line.append(fraction);
+			if (kinds[slot] == IO_CHANGE)
+				line.append(" io source=").append(sources[slot]).append(" direction=").append(directions[slot]);
+			else
+				line.append(" read source=").append(sources[slot]).append(" antenna=").append(antennas[slot])
+						.append(" rssi=").append(rssis[slot]).append(" epc=").append(epcs[slot]);
+			line.append(" sensor=").append(sensors[slot]).append('\n');
+		}
+	}
+
+	/**
+	 * @return the number of written events
+	 */
+	synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the number of events dropped because the ring was full
+	 */
+	long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * @return the minimum latency from receiving to writing an event in
+	 *         nanoseconds
+	 */
+	synchronized long getMinLatency() {
+		return count > 0 ? minLatency : 0;
+	}
+
+	/**
+	 * @return the maximum latency in nanoseconds
+	 */
+	synchronized long getMaxLatency() {
+		return maxLatency;
+	}
+
+	/**
+	 * @return the mean latency in nanoseconds
+	 */
+	synchronized long getMeanLatency() {
+		return count > 0 ? totalLatency / count : 0;
+	}
+}
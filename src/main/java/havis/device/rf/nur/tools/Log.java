@@ -0,0 +1,382 @@
+package havis.device.rf.nur.tools;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes log messages asynchronously. Messages are put into a bounded ring
+ * buffer and written by a background thread, so callers like the listener
+ * thread of the API do not wait for the console. If the buffer is full,
+ * debug and info messages are dropped and the number of dropped messages is
+ * logged later, warnings, errors and output data wait for space, so they are
+ * never lost. Callers which must not wait, like the listener thread of the
+ * API, may queue output data which is dropped and counted instead. The
+ * output is either text with a timestamp or one JSON object per line. In
+ * text format errors are written without timestamp like "PROGRAM EXIT WITH
+ * ERROR: ...", as callers may match the error output. If output data has to
+ * be parsed, all log messages can be moved to the error output.
+ */
+class Log {
+
+	enum Level {
+		DEBUG, INFO, WARN, ERROR
+	}
+
+	/* written as is without timestamp and line break */
+	private static final byte RAW = -1;
+	/* written as a line without timestamp in all formats */
+	private static final byte DATA = -2;
+	/* avoids the copy of each call of Level.values() */
+	private static final Level[] LEVELS = Level.values();
+
+	private static final DateTimeFormatter TEXT_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+	private static final DateTimeFormatter JSON_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+	private final PrintStream out;
+	private final PrintStream err;
+	private final Level level;
+	private final boolean json;
+	private final ZoneId zone = ZoneId.systemDefault();
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	private final Condition empty = lock.newCondition();
+	private final long[] times;
+	private final byte[] levels;
+	private final String[] prefixes;
+	private final String[] messages;
+	private int head;
+	private int size;
+	private long dropped;
+	private long droppedData;
+	private boolean writing;
+	private volatile boolean separated;
+
+	/* only used by the writer thread */
+	private final StringBuilder line = new StringBuilder(256);
+	private long second = Long.MIN_VALUE;
+	private String secondText;
+
+	/**
+	 * Creates a new log and starts its writer thread
+	 *
+	 * @param out
+	 *            the output of messages below {@link Level#ERROR}
+	 * @param err
+	 *            the output of errors
+	 * @param level
+	 *            the minimum level of written messages
+	 * @param json
+	 *            whether to write JSON lines
+	 * @param capacity
+	 *            the maximum number of queued messages
+	 */
+	Log(PrintStream out, PrintStream err, Level level, boolean json, int capacity) {
+		this.out = out;
+		this.err = err;
+		this.level = level;
+		this.json = json;
+		this.times = new long[capacity];
+		this.levels = new byte[capacity];
+		this.prefixes = new String[capacity];
+		this.messages = new String[capacity];
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				write();
+			}
+		}, "log-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Creates the log configured by the system properties
+	 * havis.device.rf.nur.tools.logLevel (DEBUG, INFO, WARN or ERROR) and
+	 * havis.device.rf.nur.tools.logFormat (text or json). The log is flushed
+	 * on shutdown.
+	 *
+	 * @return the log
+	 */
+	static Log create() {
+		Level level = Level.INFO;
+		try {
+			level = Level.valueOf(System.getProperty("havis.device.rf.nur.tools.logLevel", "INFO").toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.err.println("Unknown log level, using " + level);
+		}
+		final Log log = new Log(System.out, System.err, level,
+				"json".equalsIgnoreCase(System.getProperty("havis.device.rf.nur.tools.logFormat")),
+				Integer.getInteger("havis.device.rf.nur.tools.logCapacity", 4096));
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				log.flush(1, TimeUnit.SECONDS);
+			}
+		}, "log-flush"));
+		return log;
+	}
+
+	/**
+	 * @return whether messages of the level are written
+	 */
+	boolean isEnabled(Level level) {
+		return level.compareTo(this.level) >= 0;
+	}
+
+	/**
+	 * Queues a message. Debug and info messages never block, other messages
+	 * wait while the buffer is full.
+	 *
+	 * @param level
+	 *            the level
+	 * @param prefix
+	 *            the prefix of the message, e.g. the device
+	 * @param message
+	 *            the message
+	 */
+	void log(Level level, String prefix, String message) {
+		if (isEnabled(level))
+			offer((byte) level.ordinal(), prefix, message);
+	}
+
+	/**
+	 * Queues text which is written as is, e.g. a blank line or a summary.
+	 * Raw text is not written in JSON mode.
+	 *
+	 * @param text
+	 *            the text
+	 */
+	void raw(String text) {
+		if (!json)
+			offer(RAW, "", text);
+	}
+
+	/**
+	 * Writes all log messages and raw text to the error output from now on,
+	 * so the standard output only receives output data
+	 */
+	void separateData() {
+		separated = true;
+	}
+
+	/**
+	 * Queues a line of output data, e.g. a JSON document, which is written
+	 * without timestamp in all formats
+	 *
+	 * @param line
+	 *            the line
+	 */
+	void print(String line) {
+		offer(DATA, "", line, false);
+	}
+
+	/**
+	 * Queues a line of output data like {@link #print(String)}, but drops it
+	 * instead of waiting while the buffer is full
+	 *
+	 * @param line
+	 *            the line
+	 * @return false if the line was dropped
+	 */
+	boolean tryPrint(String line) {
+		return offer(DATA, "", line, true);
+	}
+
+	private boolean offer(byte level, String prefix, String message) {
+		return offer(level, prefix, message, level == Level.DEBUG.ordinal() || level == Level.INFO.ordinal());
+	}
+
+	private boolean offer(byte level, String prefix, String message, boolean droppable) {
+		long time = System.currentTimeMillis();
+		lock.lock();
+		try {
+			while (size == messages.length) {
+				if (droppable) {
+					if (level == DATA)
+						droppedData++;
+					else
+						dropped++;
+					return false;
+				}
+				notFull.awaitUninterruptibly();
+			}
+			int slot = (head + size) % messages.length;
+			times[slot] = time;
+			levels[slot] = level;
+			prefixes[slot] = prefix;
+			messages[slot] = message;
+			size++;
+			notEmpty.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until all queued messages are written
+	 *
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the unit of the timeout
+	 * @return true if all messages were written
+	 */
+	boolean flush(long timeout, TimeUnit unit) {
+		long nanos = unit.toNanos(timeout);
+		lock.lock();
+		try {
+			while (size > 0 || writing) {
+				if (nanos <= 0)
+					return false;
+				nanos = empty.awaitNanos(nanos);
+			}
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void write() {
+		while (true) {
+			long time;
+			byte level;
+			String prefix;
+			String message;
+			long lost = 0;
+			long lostData = 0;
+			lock.lock();
+			try {
+				while (size == 0) {
+					writing = false;
+					empty.signalAll();
+					notEmpty.awaitUninterruptibly();
+				}
+				writing = true;
+				time = times[head];
+				level = levels[head];
+				prefix = prefixes[head];
+				message = messages[head];
+				prefixes[head] = null;
+				messages[head] = null;
+				head = (head + 1) % messages.length;
+				size--;
+				notFull.signalAll();
+				if (size == 0) {
+					lost = dropped;
+					lostData = droppedData;
+					dropped = 0;
+					droppedData = 0;
+				}
+			} finally {
+				lock.unlock();
+			}
+			try {
+				PrintStream log = separated ? err : out;
+				if (level == RAW) {
+					log.print(message);
+				} else if (level == DATA) {
+					out.println(message);
+				} else {
+					PrintStream stream = level == Level.ERROR.ordinal() ? err : log;
+					format(time, LEVELS[level], prefix, message);
+					stream.print(line);
+				}
+				if (lost > 0) {
+					format(System.currentTimeMillis(), Level.WARN, "", lost + " log messages dropped");
+					err.print(line);
+				}
+				if (lostData > 0) {
+					format(System.currentTimeMillis(), Level.WARN, "", lostData + " output lines dropped");
+					err.print(line);
+				}
+				out.flush();
+				if (separated)
+					err.flush();
+			} catch (RuntimeException e) {
+				// keep writing
+			}
+		}
+	}
+
+	private void format(long time, Level level, String prefix, String message) {
+		line.setLength(0);
+		long millis = time % 1000;
+		if (json) {
+			line.append("{\"time\":\"");
+			appendTime(time, millis);
+			line.append("\",\"level\":\"").append(level).append('"');
+			if (!prefix.isEmpty()) {
+				line.append(",\"device\":\"");
+				// the prefix ends with ": "
+				appendEscaped(prefix.endsWith(": ") ? prefix.substring(0, prefix.length() - 2) : prefix);
+				line.append('"');
+			}
+			line.append(",\"message\":\"");
+			appendEscaped(message);
+			line.append("\"}\n");
+		} else if (level == Level.ERROR) {
+			line.append(prefix).append(message).append('\n');
+		} else {
+			appendTime(time, millis);
+			line.append(": ");
+			if (level != Level.INFO)
+				line.append(level).append(": ");
+			line.append(prefix).append(message).append('\n');
+		}
+	}
+
+	private void appendTime(long time, long millis) {
+		long current = time / 1000;
+		if (current != second) {
+			// the formatted seconds only change once per second
+			second = current;
+			secondText = (json ? JSON_FORMAT : TEXT_FORMAT).format(LocalDateTime.ofInstant(Instant.ofEpochSecond(current), zone));
+		}
+		line.append(secondText).append('.');
+		if (millis < 100)
+			line.append('0');
+		if (millis < 10)
+			line.append('0');
+		line.append(millis);
+	}
+
+	private void appendEscaped(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '"':
+				line.append("\\\"");
+				break;
+			case '\\':
+				line.append("\\\\");
+				break;
+			case '\n':
+				line.append("\\n");
+				break;
+			case '\r':
+				line.append("\\r");
+				break;
+			case '\t':
+				line.append("\\t");
+				break;
+			default:
+				if (c < 0x20)
+					line.append(String.format("\\u%04x", (int) c));
+				else
+					line.append(c);
+			}
+		}
+	}
+}
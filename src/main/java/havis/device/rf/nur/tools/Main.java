@@ -1,19 +1,35 @@
 package havis.device.rf.nur.tools;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
-import java.text.SimpleDateFormat;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
-import java.util.Objects;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
-import com.nordicid.nativeserial.NativeSerialTransport;
-import com.nordicid.nativeserial.SerialPort;
 import com.nordicid.nurapi.NurApi;
 import com.nordicid.nurapi.NurApiException;
 import com.nordicid.nurapi.NurApiListener;
-import com.nordicid.nurapi.NurBinFileType;
 import com.nordicid.nurapi.NurEventAutotune;
 import com.nordicid.nurapi.NurEventClientInfo;
 import com.nordicid.nurapi.NurEventDeviceInfo;
@@ -44,39 +60,105 @@ public class Main implements NurApiListener {
 
 	public static final String[] USAGE = new String[] {
 		"USAGE:",
-		NAME + " -b|-f <binary_file> (-p)",
+		NAME + " -b|-f <binary_file> (-p) (-F) (-J)",
+		NAME + " -U <binary_file> (-p) (-F) (-J) (-o)",
 		NAME + " -s b|a",
-		NAME + " -r (-4)",
-		NAME + " -t 1|2(|3|4)",
-		NAME + " -d 1|2(|3|4)",
+		NAME + " -c (-J)",
+		NAME + " -e <config_file>",
+		NAME + " -E <config_file> (-p)",
+		NAME + " -r (-4|<profile>) (-p)",
+		NAME + " -t 1|2(|3|4)(,...)|all",
+		NAME + " -d 1|2(|3|4)(,...)|all (-n <samples>) (-T <threshold>) (-M <margin>) (-I)",
+		NAME + " -m 1|2(|3|4)(,...)|all (-i <interval>) (-n <history>) (-T <threshold>) (-M <margin>) (-D <drift>) (-s <seconds>)",
+		NAME + " -n 1|2(|3|4)(,...)|all (-s <seconds>) (-w <window>)",
+		NAME + " -W (-s <seconds>) (-P <port>) (-J)",
+		NAME + " -x <script_file>|-",
+		NAME + " -a (-j <n>) <command>",
+		NAME + " -S <serial> <command>",
+		NAME + " -l",
+		NAME + " -D (-P <port>)",
 		"",
 		" -b\t Update boot loader",
 		" -f\t Update firmware",
 		" -u\t Check whether the provided firmware is newer than the installed firmware",
+		" -v\t Installed firmware version, the module is not connected for the check",
+		" -U\t Upgrade firmware including mode switches and version check",
 		" -p\t Pretend update only",
-		" -r\t Reset module configuration",
+		" -F\t Program at the highest baud rate supported by module and host",
+		" -o\t Upgrade even if the installed firmware is newer",
+		" -r\t Reset module configuration to the 2 antenna, 4 antenna (-4) or a hardware profile",
 		" -g\t Set GPIO configuration",
 		" -i\t Set GPIO state",
 		" -c\t Display module configuration",
+		" -J\t Print the module configuration, IO events or programming progress as JSON",
+		" -e\t Save the writable module configuration to a file",
+		" -E\t Apply the differences of a configuration file to the module",
 		" -t\t Tune antenna",
 		" -d\t Detect antenna connection state",
+		" -m\t Monitor antenna connection state",
+		" -n\t Run stream inventory and measure throughput",
 		" -s\t Switch to (b)oot loader or (a)pplication mode",
+		" -W\t Watch GPIO changes and triggered reads",
+		" -x\t Run the commands of a script file (or stdin) in one session",
+		" -a\t Run a command or script on all connected modules in parallel",
+		" -j\t Maximum number of modules processed at the same time",
+		" -S\t Run a command on the module with the USB serial number",
+		" -l\t List connected modules",
+		" -D\t Run as daemon which keeps the module connected and runs the commands of local clients",
 		" -h\t Print this help",
 		"",
-		"Update boot loader:         " + NAME + " -b <binary_file> (-p)",
-		"Update firmware:            " + NAME + " -f <binary_file> (-p)\n",
-		"Check firmware:             " + NAME + " -u <binary_file>\n",
+		"Update boot loader:         " + NAME + " -b <binary_file> (-p) (-F) (-J)",
+		"Update firmware:            " + NAME + " -f <binary_file> (-p) (-F) (-J)",
+		"                            (reports pages/s, bytes/s, page latency and ETA, -J prints",
+		"                            the progress as JSON lines)\n",
+		"Check firmware:             " + NAME + " -u <binary_file> (-v <installed_version>)",
+		"Upgrade firmware:           " + NAME + " -U <binary_file> (-p) (-F) (-J) (-o)",
+		"                            (skipped if the installed firmware is the same or newer,",
+		"                            -o downgrades to an older firmware)\n",
 		"Switch to boot loader mode: " + NAME + " -s a",
 		"Switch to application mode: " + NAME + " -s b\n",
-		"Set GPIO configuration:     " + NAME + " -g <io> <type> <edge> <enabled>",
-		"Set GPIO state:             " + NAME + " -i <io> <state>\n",
+		"Set GPIO configuration:     " + NAME + " -g <io> <type> <edge> <enabled> (<io> <type> <edge> <enabled> ...)",
+		"Set GPIO state:             " + NAME + " -i <io> <state> (<io> <state> ...)",
+		"                            (all GPIOs are configured with one write and one store)\n",
+		"Reset configuration:        " + NAME + " -r (-4|<profile>) (-p)",
+		"                            (profile file or name of a profile in the profile directory, writes",
+		"                            and stores only the settings which differ, -p shows the differences only)\n",
+		"Save configuration:         " + NAME + " -e <config_file>",
+		"Apply configuration:        " + NAME + " -E <config_file> (-p)",
+		"                            (writes and stores only the settings which differ, the file may",
+		"                            contain a subset of the settings, -p shows the differences only)\n",
 		"Tune antenna:               " + NAME + " -t 1|2(|3|4)",
+		"Tune several antennas:      " + NAME + " -t 1,2(,3,4)|all",
 		"Detect antenna:             " + NAME + " -d 1|2(|3|4)",
+		"Detect several antennas:    " + NAME + " -d 1,2(,3,4)|all (-n <samples>) (-T <threshold>) (-M <margin>) (-I)",
+		"                            (mean of n samples per antenna in dB, connected below the threshold,",
+		"                            uncertain within the margin, -I samples the antennas in turns)\n",
+		"Monitor antennas:           " + NAME + " -m 1,2(,3,4)|all (-i <interval>) (-n <history>) (-T <threshold>) (-M <margin>) (-D <drift>) (-s <seconds>)",
+		"                            (reads every interval ms, keeps n readings per antenna, reports",
+		"                            threshold crossings beyond the margin (default 1 dB) and mean drifts",
+		"                            in dB, runs s seconds or until stopped)\n",
+		"Measure inventory:          " + NAME + " -n 1,2(,3,4)|all (-s <seconds>) (-w <window>)",
+		"                            (runs s seconds, a tag unseen for w seconds counts as new again)\n",
+		"Watch IO:                   " + NAME + " -W (-s <seconds>) (-P <port>) (-J)",
+		"                            (writes every IO change and triggered read with a monotonic timestamp",
+		"                            to stdout or to clients of the local port, -J as JSON lines, the log",
+		"                            goes to stderr while writing to stdout)\n",
+		"Run script:                 " + NAME + " -x <script_file>|-",
+		"                            (one command per line, e.g. '-s b', '-f <binary_file>', '-s a', '-r')",
+		"Run on all modules:         " + NAME + " -a (-j <n>) <command>",
+		"Run on a specific module:   " + NAME + " -S <serial> <command>\n",
+		"Run as daemon:              " + NAME + " -D (-P <port>)",
+		"                            (clients on the local port send 'auth <token>' with the token of the file",
+		"                            ~/.havis.device.rf.nur.tools.daemon.<port>, then one command per line, e.g.",
+		"                            '-c', and receive the output lines as '- <line>' and the result as",
+		"                            '= <exit code>', -m and -n need a duration -s of at most 600 s by default)\n",
 		"",
 		"Info: Please make sure that the native lib for your OS is on the same path as "
 				+ NAME + ".",
 		"      Otherwise you can specify the native lib location with java -Djava.library.path=/path/to/native/lib -jar "
-				+ NAME + " [...]" 
+				+ NAME + " [...]",
+		"      The operation durations are written for the node exporter with java"
+				+ " -Dhavis.device.rf.nur.tools.metricsFile=<file>.prom -jar " + NAME + " [...]"
 	};
 	
 	public static final int ERR_CODE_ALL_OK = 0x0;
@@ -94,113 +176,738 @@ public class Main implements NurApiListener {
 	
 	private static final int RETRY_CONNECT = 60;
 	private static final int WAIT_BERFORE_RETRY = 1000;
+	private static final int INVENTORY_CAPACITY = 65536;
+	private static final int IO_WATCH_CAPACITY = 4096;
+	private static final int DAEMON_PORT = Integer.getInteger("havis.device.rf.nur.tools.daemonPort", 4711);
+	/* the maximum duration of -m and -n in the daemon in seconds, as they block all other clients */
+	private static final int DAEMON_MAX_DURATION = Integer.getInteger("havis.device.rf.nur.tools.daemonMaxDuration",
+			600);
+	private static final Log LOG = Log.create();
+	private static final Metrics METRICS = new Metrics();
+	/* the Prometheus text file for the textfile collector, not written if unset */
+	private static final String METRICS_FILE = System.getProperty("havis.device.rf.nur.tools.metricsFile");
+	/* the minimum time between programming progress reports in milliseconds */
+	private static final long PROGRESS_INTERVAL = Long.getLong("havis.device.rf.nur.tools.progressInterval", 2000);
+	private static final long CONNECT_TIMEOUT = Long.getLong("havis.device.rf.nur.tools.connectTimeout",
+			RETRY_CONNECT * WAIT_BERFORE_RETRY);
+	private static final long DISCOVERY_TIMEOUT = Long.getLong("havis.device.rf.nur.tools.discoveryTimeout",
+			RETRY_CONNECT * WAIT_BERFORE_RETRY);
+	private static final FirmwareCache FIRMWARE_CACHE = new FirmwareCache(
+			Paths.get(System.getProperty("user.home"), ".havis.device.rf.nur.tools.firmware"));
+	private static final String DEFAULT_PROFILE = "2-antennas";
+	private static final String FOUR_ANTENNA_PROFILE = "4-antennas";
+	private static final Path PROFILES = Paths.get(System.getProperty("havis.device.rf.nur.tools.profiles",
+			Paths.get(System.getProperty("user.home"), ".havis.device.rf.nur.tools.profiles").toString()));
+	private static final ModuleIndex INDEX = new ModuleIndex(Paths.get(ModuleIndex.DEFAULT_SYS_ROOT),
+			Paths.get(System.getProperty("user.home"), ".havis.device.rf.nur.tools.index"),
+			System.getProperty("havis.device.rf.nur.tools.usbVendor", ModuleIndex.DEFAULT_VENDOR_ID));
+
+	/* skips devices which sysfs identifies as USB devices of another vendor */
+	private static DeviceDiscovery discovery = new DeviceDiscovery(DeviceDiscovery.DEFAULT_PREFIX,
+			new Predicate<String>() {
+				@Override
+				public boolean test(String device) {
+					return INDEX.isModule(device);
+				}
+			});
+	private static NurApiFactory factory = NurApiFactory.SERIAL;
 	
-	private NativeSerialTransport transport = null;
-	private SerialPort serialPort = null;
+	private final ConnectionManager connectionManager = new ConnectionManager();
 	private NurApi nurApi = null;
+	private boolean session = false;
+	/* the number of GPIOs of the connected module, -1 until read */
+	private int gpioCount = -1;
+	private DeviceDiscovery deviceDiscovery = discovery;
+	private String logPrefix = "";
+	private int persistentWrites = 0;
+	/* the command of the session which runs or ran last */
+	private volatile Command currentCommand = null;
+	private final ObjectRenderer renderer = new ObjectRenderer();
+	private volatile InventoryStream inventoryStream = null;
+	private volatile IoWatcher ioWatcher = null;
+	private volatile ProgrammingProgress progress = null;
+	/* the connected device of the daemon */
+	private String daemonDevice = null;
+	/* receives the output instead of the log if set */
+	private volatile Consumer<String> output = null;
+	private final Consumer<String> logger = new Consumer<String>() {
+		@Override
+		public void accept(String message) {
+			log(message);
+		}
+	};
 
 	// private boolean waitingForSignal;
 	// private Semaphore semaphore = new Semaphore(0);
 
+	/**
+	 * Replaces how modules are found and connected, e.g. by simulated
+	 * modules, must be called before {@link #main(String[])}
+	 */
+	static void setModules(DeviceDiscovery discovery, NurApiFactory factory) {
+		Main.discovery = discovery;
+		Main.factory = factory;
+	}
+
 	public static void main(String[] args) {
 
 		if (args.length == 0)
 			usage();
-		String command = args[0];
-		File binFile = null;
-		String mode = null;
-		int antennaId = 0;
-		boolean pretend = false;
-		boolean fourAntennas = false;
-		int io = 0;
-		int type = 0;
-		int edge = 0;
-		boolean enabled = false;
-
-		if (command.equals("-f") || command.equals("-b") || command.equals("-u")) {			
+
+		if (args[0].equals("-l")) {
+			listModules();
+			exit(ERR_CODE_ALL_OK);
+		}
+
+		if (args[0].equals("-S")) {
+			if (args.length < 3) usage();
+			targetModule(args[1]);
+			args = Arrays.copyOfRange(args, 2, args.length);
+			if (args[0].equals("-a") || args[0].equals("-S")) usage();
+		}
+
+		if (args[0].equals("-x")) {
 			if (args.length < 2) usage();
+			runScript(args[1]);
+			exit(ERR_CODE_ALL_OK);
+		}
+
+		if (args[0].equals("-a"))
+			runOnAllDevices(args);
+
+		if (args[0].equals("-D"))
+			runDaemon(args);
+
+		Command command = parseCommand(args);
+		separateData(Collections.singletonList(command));
+
+		String device = null;
+		if (command.needsDevice() && (device = waitForDevice(discovery)) == null)
+			die(ERR_CODE_NO_DEVICE, "Failed to find device. Is NUR module connected?");
+
+		Main main = new Main();
+
+		setLibraryPath();
+
+		int result = ERR_CODE_ALL_OK;
+		try {
+			result = main.execute(device, command);
+		} catch (Exception e) {
+			die(command.errorCode(), e.getMessage());
+		}
+		exit(result);
+	}
+
+	private static Command parseCommand(String[] args) {
+		try {
+			return toCommand(args);
+		} catch (CommandException e) {
+			if (e.getMessage() == null)
+				usage();
+			die(e.getCode(), e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Parses the arguments of a command
+	 * 
+	 * @throws CommandException
+	 *             if the arguments are invalid, without message if the usage
+	 *             should be printed
+	 */
+	private static Command toCommand(String[] args) throws CommandException {
+		Command command = new Command(args[0]);
+
+		if (command.name.equals("-e") || command.name.equals("-E")) {
+			if (args.length < 2) throw CommandException.usage();
+
+			for (int i = 2; i < args.length; i++) {
+				if (args[i].equals("-p") && command.name.equals("-E"))
+					command.pretend = true;
+				else
+					throw CommandException.usage();
+			}
+
+			command.configFile = new File(args[1].replaceFirst("~", System.getProperty("user.home")));
+			if (command.name.equals("-E") && !command.configFile.exists())
+				throw new CommandException(ERR_CODE_FILE_NOT_FOUND,
+						"Configuration file '" + command.configFile.getAbsolutePath() + "' could not be found.");
+		}
+
+		else if (command.name.equals("-f") || command.name.equals("-b") || command.name.equals("-u")
+				|| command.name.equals("-U")) {			
+			if (args.length < 2) throw CommandException.usage();
 			
-			if (args.length > 2)
-				pretend = args[2].equals("-p");
+			for (int i = 2; i < args.length; i++) {
+				if (args[i].equals("-p"))
+					command.pretend = true;
+				else if (args[i].equals("-F"))
+					command.fast = true;
+				else if (args[i].equals("-J") && !command.name.equals("-u"))
+					command.json = true;
+				else if (args[i].equals("-o") && command.name.equals("-U"))
+					command.force = true;
+				else if (args[i].equals("-v") && command.name.equals("-u")) {
+					if (++i == args.length) throw CommandException.usage();
+					command.installedVersion = args[i];
+				} else
+					throw CommandException.usage();
+			}
 
-			binFile = new File(args[1].replaceFirst("~",
+			command.binFile = new File(args[1].replaceFirst("~",
 					System.getProperty("user.home")));
-			if (!binFile.exists())
-				die(ERR_CODE_FILE_NOT_FOUND,
-						"Binary file '" + binFile.getAbsolutePath()
+			if (!command.binFile.exists())
+				throw new CommandException(ERR_CODE_FILE_NOT_FOUND,
+						"Binary file '" + command.binFile.getAbsolutePath()
 								+ "' could not be found.");
 		}
 
-		else if (command.equals("-t") || command.equals("-d")) {
-			if (args.length < 2) usage();
+		else if (command.name.equals("-t") || command.name.equals("-d") || command.name.equals("-m")
+				|| command.name.equals("-n")) {
+			if (args.length < 2) throw CommandException.usage();
 			
 			try { 
-				antennaId = Integer.parseInt(args[1]);
-				if (antennaId > 4 || antennaId < 1)
-					die(ERR_CODE_ILLEGAL_ARG, "Invalid antenna ID: " + antennaId);
+				if (args[1].equals("all"))
+					command.antennaIds = new int[0];
+				else {
+					String[] ids = args[1].split(",");
+					command.antennaIds = new int[ids.length];
+					for (int i = 0; i < ids.length; i++) {
+						command.antennaIds[i] = Integer.parseInt(ids[i]);
+						if (command.antennaIds[i] > 4 || command.antennaIds[i] < 1)
+							throw new CommandException(ERR_CODE_ILLEGAL_ARG, "Invalid antenna ID: " + command.antennaIds[i]);
+					}
+					command.antennaId = command.antennaIds[0];
+				}
 			} catch (NumberFormatException ex) {
-				die(ERR_CODE_ILLEGAL_ARG, "Unrecognized antenna ID: " + args[1]);
+				throw new CommandException(ERR_CODE_ILLEGAL_ARG, "Unrecognized antenna ID: " + args[1]);
+			}
+
+			for (int i = 2; i < args.length && command.name.equals("-d"); i++) {
+				if (i + 1 == args.length && !args[i].equals("-I")) throw CommandException.usage();
+				try {
+					switch (args[i]) {
+					case "-n":
+						command.samples = Integer.parseInt(args[++i]);
+						if (command.samples < 1)
+							throw new CommandException(ERR_CODE_ILLEGAL_ARG, "Invalid sample count: " + command.samples);
+						break;
+					case "-T":
+						command.threshold = Double.parseDouble(args[++i]);
+						break;
+					case "-M":
+						command.margin = Math.abs(Double.parseDouble(args[++i]));
+						break;
+					case "-I":
+						command.interleaved = true;
+						break;
+					default:
+						throw CommandException.usage();
+					}
+				} catch (NumberFormatException ex) {
+					throw new CommandException(ERR_CODE_ILLEGAL_ARG, "Unrecognized detection option: " + args[i]);
+				}
+			}
+
+			if (command.name.equals("-m"))
+				command.margin = AntennaMonitor.DEFAULT_MARGIN;
+			for (int i = 2; i < args.length && command.name.equals("-m"); i++) {
+				if (i + 1 == args.length) throw CommandException.usage();
+				try {
+					switch (args[i]) {
+					case "-i":
+						command.interval = Integer.parseInt(args[++i]);
+						if (command.interval < 1)
+							throw new CommandException(ERR_CODE_ILLEGAL_ARG, "Invalid interval: " + command.interval);
+						break;
+					case "-n":
+						command.history = Integer.parseInt(args[++i]);
+						if (command.history < 1)
+							throw new CommandException(ERR_CODE_ILLEGAL_ARG, "Invalid history size: " + command.history);
+						break;
+					case "-T":
+						command.threshold = Double.parseDouble(args[++i]);
+						break;
+					case "-M":
+						command.margin = Math.abs(Double.parseDouble(args[++i]));
+						break;
+					case "-D":
+						command.drift = Math.abs(Double.parseDouble(args[++i]));
+						break;
+					case "-s":
+						command.duration = Integer.parseInt(args[++i]);
+						if (command.duration < 0)
+							throw new CommandException(ERR_CODE_ILLEGAL_ARG, "Invalid duration: " + command.duration);
+						break;
+					default:
+						throw CommandException.usage();
+					}
+				} catch (NumberFormatException ex) {
+					throw new CommandException(ERR_CODE_ILLEGAL_ARG, "Unrecognized monitor option: " + args[i]);
+				}
+			}
+
+			if (command.name.equals("-n"))
+				command.duration = 10;
+			for (int i = 2; i < args.length && command.name.equals("-n"); i++) {
+				if (i + 1 == args.length) throw CommandException.usage();
+				try {
+					switch (args[i]) {
+					case "-s":
+						command.duration = Integer.parseInt(args[++i]);
+						if (command.duration < 1)
+							throw new CommandException(ERR_CODE_ILLEGAL_ARG, "Invalid duration: " + command.duration);
+						break;
+					case "-w":
+						command.window = Integer.parseInt(args[++i]);
+						if (command.window < 0)
+							throw new CommandException(ERR_CODE_ILLEGAL_ARG, "Invalid window: " + command.window);
+						break;
+					default:
+						throw CommandException.usage();
+					}
+				} catch (NumberFormatException ex) {
+					throw new CommandException(ERR_CODE_ILLEGAL_ARG, "Unrecognized inventory option: " + args[i]);
+				}
 			}
 		}
 		
-		else if (command.equals("-s")) {
-			if (args.length < 2) usage();
+		else if (command.name.equals("-s")) {
+			if (args.length < 2) throw CommandException.usage();
 			
-			mode = args[1];
-			if (!(mode.equals("a") || mode.equals("b")))
-				usage();
+			command.mode = args[1];
+			if (!(command.mode.equals("a") || command.mode.equals("b")))
+				throw CommandException.usage();
+		}
+
+		else if (command.name.equals("-W")) {
+			for (int i = 1; i < args.length; i++) {
+				try {
+					switch (args[i]) {
+					case "-s":
+						if (i + 1 == args.length) throw CommandException.usage();
+						command.duration = Integer.parseInt(args[++i]);
+						break;
+					case "-P":
+						if (i + 1 == args.length) throw CommandException.usage();
+						command.port = Integer.parseInt(args[++i]);
+						if (command.port < 1 || command.port > 65535)
+							throw new CommandException(ERR_CODE_ILLEGAL_ARG, "Invalid port: " + command.port);
+						break;
+					case "-J":
+						command.json = true;
+						break;
+					default:
+						throw CommandException.usage();
+					}
+				} catch (NumberFormatException ex) {
+					throw new CommandException(ERR_CODE_ILLEGAL_ARG, "Unrecognized IO watch option: " + args[i]);
+				}
+			}
 		}
 
-		else if (command.equals("-r")) {			
-			if (args.length > 1 && args[1].equals("-4")) 
-				fourAntennas = true;
+		else if (command.name.equals("-c")) {
+			if (args.length > 1 && args[1].equals("-J"))
+				command.json = true;
+		}
+
+		else if (command.name.equals("-r")) {
+			command.profile = DEFAULT_PROFILE;
+			for (int i = 1; i < args.length; i++) {
+				if (args[i].equals("-4"))
+					command.profile = FOUR_ANTENNA_PROFILE;
+				else if (args[i].equals("-p"))
+					command.pretend = true;
+				else if (i == 1)
+					command.profile = args[i].replaceFirst("~", System.getProperty("user.home"));
+				else
+					throw CommandException.usage();
+			}
 		}
 		
-		else if (command.equals("-g")) {
-			if (args.length != 5) usage();
+		else if (command.name.equals("-g")) {
+			if (args.length < 5 || (args.length - 1) % 4 != 0) throw CommandException.usage();
+			int count = (args.length - 1) / 4;
+			command.ios = new int[count];
+			command.types = new int[count];
+			command.edges = new int[count];
+			command.states = new boolean[count];
 			try {
-				io = Integer.parseInt(args[1]);
-				type = Integer.parseInt(args[2]);
-				edge = Integer.parseInt(args[3]);
-				if ("true".equalsIgnoreCase(args[4]) || "false".equalsIgnoreCase(args[4])) {
-					enabled = Boolean.parseBoolean(args[4]);
-				} else {
-					enabled = Integer.parseInt(args[4]) != 0;
+				for (int i = 0; i < count; i++) {
+					command.ios[i] = parseGpio(args[1 + i * 4], command.ios, i);
+					command.types[i] = Integer.parseInt(args[2 + i * 4]);
+					command.edges[i] = Integer.parseInt(args[3 + i * 4]);
+					command.states[i] = parseBoolean(args[4 + i * 4]);
 				}
 			} catch (NumberFormatException ex) {
-				die(ERR_CODE_ILLEGAL_ARG, "Unrecognized GPIO config");
+				throw new CommandException(ERR_CODE_ILLEGAL_ARG, "Unrecognized GPIO config");
 			}
 		}
 		
-		else if (command.equals("-i")) {
-			if (args.length != 3) usage();
+		else if (command.name.equals("-i")) {
+			if (args.length < 3 || (args.length - 1) % 2 != 0) throw CommandException.usage();
+			int count = (args.length - 1) / 2;
+			command.ios = new int[count];
+			command.states = new boolean[count];
 			try {
-				io = Integer.parseInt(args[1]);
-				if ("true".equalsIgnoreCase(args[2]) || "false".equalsIgnoreCase(args[2])) {
-					enabled = Boolean.parseBoolean(args[2]);
-				} else {
-					enabled = Integer.parseInt(args[2]) != 0;
+				for (int i = 0; i < count; i++) {
+					command.ios[i] = parseGpio(args[1 + i * 2], command.ios, i);
+					command.states[i] = parseBoolean(args[2 + i * 2]);
 				}
 			} catch (NumberFormatException ex) {
-				die(ERR_CODE_ILLEGAL_ARG, "Unrecognized GPIO state");
+				throw new CommandException(ERR_CODE_ILLEGAL_ARG, "Unrecognized GPIO state");
 			}
 		}
+		return command;
+	}
+
+	/**
+	 * Parses a GPIO number, each GPIO may only be given once
+	 */
+	private static int parseGpio(String value, int[] ios, int count) throws CommandException {
+		int io = Integer.parseInt(value);
+		if (io < 0)
+			throw new CommandException(ERR_CODE_ILLEGAL_ARG, "Illegal GPIO: " + io);
+		for (int i = 0; i < count; i++) {
+			if (ios[i] == io)
+				throw new CommandException(ERR_CODE_ILLEGAL_ARG, "GPIO given more than once: " + io);
+		}
+		return io;
+	}
 
-		String device;
-		int attempts = 0;
-		while ((device = findDevice("/dev/ttyACM")) == null && ++attempts < RETRY_CONNECT) {
+	private static boolean parseBoolean(String value) {
+		if ("true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value))
+			return Boolean.parseBoolean(value);
+		return Integer.parseInt(value) != 0;
+	}
+
+	/**
+	 * Runs all commands of a script in one session. Each line of the script
+	 * holds one command with the same syntax as on the command line, empty
+	 * lines and lines starting with '#' are ignored. The connection is only
+	 * re-established if a mode switch requires it.
+	 * 
+	 * @param script
+	 *            the script file or '-' for stdin
+	 */
+	private static void runScript(String script) {
+		List<Command> commands = readScript(script);
+		separateData(commands);
+
+		Main main = new Main();
+
+		setLibraryPath();
+
+		int result = main.runSession(commands, discovery);
+		if (result != ERR_CODE_ALL_OK)
+			exit(result);
+	}
+
+	private static List<Command> readScript(String script) {
+		List<Command> commands = new ArrayList<>();
+		try (BufferedReader reader = "-".equals(script)
+				? new BufferedReader(new InputStreamReader(System.in))
+				: new BufferedReader(new FileReader(script.replaceFirst("~", System.getProperty("user.home"))))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+				String[] args = line.split("\\s+");
+				if (args[0].equals("-x") || args[0].equals("-a") || args[0].equals("-S") || args[0].equals("-l")
+						|| args[0].equals("-h"))
+					die(ERR_CODE_ILLEGAL_ARG, "Command not allowed in script: " + line);
+				commands.add(parseCommand(args));
+			}
+		} catch (FileNotFoundException e) {
+			die(ERR_CODE_FILE_NOT_FOUND, "Script file '" + script + "' could not be found.");
+		} catch (IOException e) {
+			die(ERR_CODE_BAD_SYNTAX, "Failed to read script: " + e.getMessage());
+		}
+		return commands;
+	}
+
+	/**
+	 * Runs the daemon which keeps the module connected and runs the commands
+	 * of local clients
+	 */
+	private static void runDaemon(String[] args) {
+		int port = DAEMON_PORT;
+		if (args.length == 3 && args[1].equals("-P")) {
 			try {
-				Thread.sleep(WAIT_BERFORE_RETRY);
-			} catch (InterruptedException e) {
-				break;
+				port = Integer.parseInt(args[2]);
+				if (port < 1 || port > 65535)
+					die(ERR_CODE_ILLEGAL_ARG, "Invalid port: " + port);
+			} catch (NumberFormatException ex) {
+				die(ERR_CODE_ILLEGAL_ARG, "Unrecognized port: " + args[2]);
+			}
+		} else if (args.length != 1)
+			usage();
+
+		setLibraryPath();
+
+		final Main main = new Main();
+		main.session = true;
+		String device = waitForDevice(discovery);
+		if (device != null) {
+			try {
+				main.connect(device);
+				main.daemonDevice = device;
+			} catch (Exception e) {
+				main.log("Failed to connect, retrying with the first command: " + e.getMessage());
 			}
 		}
 
-		if (device == null)
+		Path tokenFile = Paths.get(System.getProperty("user.home"), ".havis.device.rf.nur.tools.daemon." + port);
+		Daemon daemon = new Daemon(port, tokenFile, new Daemon.Handler() {
+			@Override
+			public int handle(String[] args, Consumer<String> output) throws CommandException {
+				return main.handle(args, output);
+			}
+		}, main.logger);
+		try {
+			daemon.run();
+		} catch (IOException e) {
+			die(ERR_CODE_ILLEGAL_ARG, "Failed to listen on port " + port + ": " + e.getMessage());
+		}
+		try {
+			main.closeSession();
+		} catch (Exception e) {
+		}
+		exit(ERR_CODE_ALL_OK);
+	}
+
+	/**
+	 * Runs a command of a daemon client in the session of the daemon
+	 */
+	private int handle(String[] args, Consumer<String> output) throws CommandException {
+		if (args[0].equals("-x") || args[0].equals("-a") || args[0].equals("-S") || args[0].equals("-l")
+				|| args[0].equals("-h") || args[0].equals("-D") || args[0].equals("-W"))
+			throw new CommandException(ERR_CODE_ILLEGAL_ARG, "Command not allowed in daemon: " + args[0]);
+		Command command = toCommand(args);
+		if ((command.name.equals("-m") || command.name.equals("-n"))
+				&& (command.duration < 1 || command.duration > DAEMON_MAX_DURATION))
+			throw new CommandException(ERR_CODE_ILLEGAL_ARG,
+					"Command needs a duration of 1 to " + DAEMON_MAX_DURATION + " s in daemon: " + args[0]);
+
+		this.output = output;
+		try {
+			if (this.nurApi == null && command.needsDevice()) {
+				// first command or reconnect after a mode switch or failure
+				daemonDevice = waitForDevice(deviceDiscovery);
+				if (daemonDevice == null)
+					throw new CommandException(ERR_CODE_NO_DEVICE, "Failed to find device. Is NUR module connected?");
+			}
+			return execute(daemonDevice, command);
+		} catch (CommandException e) {
+			throw e;
+		} catch (Exception e) {
+			dropIfLost();
+			throw new CommandException(command.errorCode(), e.getMessage());
+		} finally {
+			this.output = null;
+			// the daemon does not exit, keep the collected metrics current
+			writeMetrics();
+		}
+	}
+
+	/**
+	 * Drops the connection if the module does not respond anymore, so the
+	 * next command connects again
+	 */
+	private void dropIfLost() {
+		if (this.nurApi == null)
+			return;
+		try {
+			mode();
+		} catch (Exception e) {
+			log("Connection lost");
+			try {
+				releaseAfterModeSwitch();
+			} catch (Exception ex) {
+				this.nurApi = null;
+			}
+		}
+	}
+
+	/**
+	 * Runs a command or script on all connected modules in parallel. Each
+	 * module gets its own session, the number of modules processed at the
+	 * same time can be limited with -j. The program exits with the exit code
+	 * of the first module that failed.
+	 */
+	private static void runOnAllDevices(String[] args) {
+		int concurrency = Integer.MAX_VALUE;
+		int offset = 1;
+		if (args.length > 2 && args[1].equals("-j")) {
+			try {
+				concurrency = Integer.parseInt(args[2]);
+				if (concurrency < 1)
+					die(ERR_CODE_ILLEGAL_ARG, "Invalid concurrency: " + concurrency);
+			} catch (NumberFormatException ex) {
+				die(ERR_CODE_ILLEGAL_ARG, "Unrecognized concurrency: " + args[2]);
+			}
+			offset = 3;
+		}
+		if (args.length <= offset)
+			usage();
+
+		String[] commandArgs = Arrays.copyOfRange(args, offset, args.length);
+		final List<Command> commands;
+		if (commandArgs[0].equals("-x")) {
+			if (commandArgs.length < 2) usage();
+			commands = readScript(commandArgs[1]);
+		} else {
+			if (commandArgs[0].equals("-a") || commandArgs[0].equals("-S")) usage();
+			commands = Collections.singletonList(parseCommand(commandArgs));
+		}
+		separateData(commands);
+
+		if (waitForDevice(discovery) == null)
 			die(ERR_CODE_NO_DEVICE, "Failed to find device. Is NUR module connected?");
+		List<String> devices = discovery.findAll();
+		final Map<String, String> serials = new HashMap<>();
+		for (ModuleIndex.Module module : INDEX.scan(devices))
+			serials.put(module.device, module.serial);
+
+		setLibraryPath();
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, devices.size()));
+		Map<String, Future<Integer>> results = new LinkedHashMap<>();
+		final Map<String, Main> mains = new HashMap<>();
+		for (final String device : devices) {
+			final Main main = new Main();
+			main.logPrefix = device + ": ";
+			mains.put(device, main);
+			results.put(device, executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					// find the module again by its serial number or path after a mode switch
+					final String serial = serials.get(device);
+					return main.runSession(commands, discovery.filter(new Predicate<String>() {
+						@Override
+						public boolean test(String path) {
+							return serial != null ? INDEX.matches(path, serial) : path.equals(device);
+						}
+					}));
+				}
+			}));
+		}
+		executor.shutdown();
 
-		Main main = new Main();
+		int result = ERR_CODE_ALL_OK;
+		List<String> summary = new ArrayList<>();
+		for (Map.Entry<String, Future<Integer>> entry : results.entrySet()) {
+			int code;
+			Main main = mains.get(entry.getKey());
+			try {
+				code = entry.getValue().get();
+			} catch (ExecutionException e) {
+				// an unexpected failure of the session, reported like a failed command
+				Throwable cause = e.getCause();
+				if (cause instanceof CommandException)
+					code = ((CommandException) cause).getCode();
+				else
+					code = main.currentCommand != null ? main.currentCommand.errorCode() : ERR_CODE_ILLEGAL_ARG;
+				main.error(cause.getMessage() != null ? cause.getMessage() : cause.toString());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				code = main.currentCommand != null ? main.currentCommand.errorCode() : ERR_CODE_ILLEGAL_ARG;
+				main.error("Interrupted");
+			}
+			summary.add(entry.getKey() + ": " + (code == ERR_CODE_ALL_OK ? "OK" : String.format("FAILED (0x%02X)", code)));
+			if (result == ERR_CODE_ALL_OK)
+				result = code;
+		}
+		LOG.raw("\nResult for " + devices.size() + " module(s):\n");
+		for (String line : summary)
+			LOG.raw(line + "\n");
+		exit(result);
+	}
+
+	/**
+	 * Lists the connected modules and updates the module index
+	 */
+	private static void listModules() {
+		List<ModuleIndex.Module> modules = INDEX.scan(new DeviceDiscovery(DeviceDiscovery.DEFAULT_PREFIX).findAll());
+		for (ModuleIndex.Module module : modules)
+			System.out.println(module);
+		if (modules.isEmpty())
+			die(ERR_CODE_NO_DEVICE, "No module found.");
+	}
 
+	/**
+	 * Restricts the discovery to the module with the serial number. The
+	 * last known device of the module is checked first, all devices are
+	 * only identified if the module is not found there.
+	 * 
+	 * @param serial
+	 *            the serial number
+	 */
+	private static void targetModule(final String serial) {
+		discovery = discovery.filter(new Predicate<String>() {
+			@Override
+			public boolean test(String device) {
+				if (!INDEX.matches(device, serial))
+					return false;
+				INDEX.update(serial, device);
+				return true;
+			}
+		}).hint(new Supplier<String>() {
+			@Override
+			public String get() {
+				return INDEX.lookup(serial);
+			}
+		});
+	}
+
+	/**
+	 * Runs commands on a device. A connection is kept open for all commands
+	 * if there is more than one.
+	 * 
+	 * @param commands
+	 *            the commands
+	 * @param discovery
+	 *            the discovery of the device, also used to find the device
+	 *            again after a mode switch
+	 * @return the exit code
+	 */
+	private int runSession(List<Command> commands, DeviceDiscovery discovery) {
+		session = commands.size() > 1;
+		deviceDiscovery = discovery;
+
+		int result = ERR_CODE_ALL_OK;
+		String device = null;
+		for (Command command : commands) {
+			this.currentCommand = command;
+			if (this.nurApi == null && command.needsDevice()) {
+				// first command or reconnect after a mode switch
+				device = waitForDevice(discovery);
+				if (device == null) {
+					result = ERR_CODE_NO_DEVICE;
+					error("Failed to find device. Is NUR module connected?");
+					break;
+				}
+			}
+			try {
+				result = execute(device, command);
+			} catch (Exception e) {
+				result = command.errorCode();
+				error(e.getMessage());
+			}
+			if (result != ERR_CODE_ALL_OK)
+				break;
+		}
+
+		try {
+			closeSession();
+		} catch (Exception e) {
+		}
+		return result;
+	}
+
+	private static void setLibraryPath() {
 		try {
 			/* "Dirty" hack to set the java.lib.path in code to current dir */
 			System.setProperty("java.library.path", ".");
@@ -210,102 +917,148 @@ public class Main implements NurApiListener {
 			fieldSysPath.set(null, null);
 		} catch (Exception e) {
 		}
+	}
+
+	private int execute(String device, Command command) throws Exception {
+		persistentWrites = 0;
+		long start = System.nanoTime();
+		try {
+			return executeCommand(device, command);
+		} finally {
+			METRICS.record("command " + command.name, start);
+			log("Persistent writes: " + persistentWrites);
+		}
+	}
 
-		switch (command) {
+	private int executeCommand(String device, Command command) throws Exception {
+		switch (command.name) {
 		case "-s":
-			try {
-				main.switchMode(device, mode);
-			} catch (Exception e) {
-				die(ERR_CODE_MODE_SWITCH_ERROR, e.getMessage());
-			}
+			switchMode(device, command.mode);
 			break;
-
 		case "-f":
-			try {
-				main.updateFirmware(device, binFile, pretend);
-			} catch (Exception e) {
-				die(ERR_CODE_APP_UPD_ERROR, e.getMessage());
-			}
+			updateFirmware(device, command.binFile, command.pretend, command.fast, command.json);
 			break;
-
 		case "-b":
-			try {
-				main.updateBootLoader(device, binFile, pretend);
-			} catch (Exception e) {
-				die(ERR_CODE_BOOT_LOADER_UPD_ERROR, e.getMessage());
-			}
+			updateBootLoader(device, command.binFile, command.pretend, command.fast, command.json);
+			break;
+		case "-U":
+			upgrade(device, command.binFile, command.pretend, command.fast, command.json, command.force);
 			break;
 		case "-u":
-			try {
-				if (!main.canUpdate(device, binFile)) {
-					System.exit(ERR_CODE_NO_UPD);
-				}
-			} catch (Exception e) {
-				die(ERR_CODE_APP_UPD_ERROR, e.getMessage());
-			}
+			if (!canUpdate(device, command.binFile, command.installedVersion))
+				return ERR_CODE_NO_UPD;
 			break;
 		case "-r":
-			try {
-				main.resetConfig(device, fourAntennas);
-			} catch (Exception e) {
-				die(ERR_CODE_CONFIG_RESET_ERROR, e.getMessage());
-			}
+			applyProfile(device, command.profile, command.pretend);
+			break;
+		case "-W":
+			watchIo(device, command.duration, command.port, command.json);
+			break;
+		case "-e":
+			saveConfig(device, command.configFile);
+			break;
+		case "-E":
+			applyConfig(device, ConfigSnapshot.load(command.configFile.toPath()), command.pretend);
 			break;
 		case "-c":
-			try {
-				main.displayConfig(device);
-			} catch (Exception e) {
-				die(ERR_CODE_CONFIG_DISPLAY_ERROR, e.getMessage());
-			}
+			if (command.json)
+				displayConfigJson(device);
+			else
+				displayConfig(device);
 			break;
 		case "-g":
-			try {
-				main.setGpioConfig(device, io, type, edge, enabled);
-			} catch (Exception e) {
-				die(ERR_CODE_SET_GPIO_ERROR, e.getMessage());
-			}
+			setGpioConfig(device, command.ios, command.types, command.edges, command.states);
 			break;
 		case "-i":
-			try {
-				main.setGpioState(device, io, enabled);
-			} catch (Exception e) {
-				die(ERR_CODE_SET_GPIO_ERROR, e.getMessage());
-			}
+			setGpioState(device, command.ios, command.states);
 			break;
 		case "-t":
-			try {
-				main.tune(device, antennaId);
-			} catch (Exception e) {
-				die(ERR_CODE_CONFIG_RESET_ERROR, e.getMessage());
-			}
+			tune(device, command.antennaIds);
 			break;
 		case "-d":
-			try {
-				main.autoDetect(device, antennaId);
-			} catch (Exception e) {
-				die(ERR_CODE_CONFIG_RESET_ERROR, e.getMessage());
-			}
+			autoDetect(device, command.antennaIds, command.samples, command.threshold, command.margin,
+					command.interleaved);
+			break;
+		case "-n":
+			inventory(device, command.antennaIds, command.duration, command.window);
+			break;
+		case "-m":
+			monitor(device, command.antennaIds, command.interval, command.history, command.threshold, command.margin,
+					command.drift, command.duration);
 			break;
 		default:
-			die(ERR_CODE_ILLEGAL_ARG, "Illegal argument exception.");
+			throw new IllegalArgumentException("Illegal argument exception.");
 		}
-		System.exit(ERR_CODE_ALL_OK);
+		return ERR_CODE_ALL_OK;
 	}
 
-	private static String findDevice(String prefix) {
-		for (int i = 0; i < 127; i++) {
-			if (new File(prefix + i).exists())
-				return prefix + i;
+	/**
+	 * Waits until a device exists
+	 * 
+	 * @param discovery
+	 *            the discovery
+	 * @return the device or null if none appeared
+	 */
+	private static String waitForDevice(DeviceDiscovery discovery) {
+		long start = System.nanoTime();
+		try {
+			return discovery.await(DISCOVERY_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			return null;
+		} finally {
+			METRICS.record("discovery", start);
+		}
+	}
+
+	/**
+	 * Moves the log to the error output if a command prints output data, so
+	 * the standard output only contains the data lines
+	 */
+	private static void separateData(List<Command> commands) {
+		for (Command command : commands) {
+			if (command.printsData()) {
+				LOG.separateData();
+				return;
+			}
 		}
-		return null;
 	}
 
 	private static void die(int retCode, String message) {
 		if (message != null)
-			System.err.println("PROGRAM EXIT WITH ERROR: " + message);
+			LOG.log(Log.Level.ERROR, "", "PROGRAM EXIT WITH ERROR: " + message);
+		exit(retCode);
+	}
+
+	/**
+	 * Reports the durations of the operations and exits
+	 */
+	private static void exit(int retCode) {
+		if (!METRICS.isEmpty()) {
+			LOG.log(Log.Level.INFO, "", "Operation durations:");
+			METRICS.summary(new Consumer<String>() {
+				@Override
+				public void accept(String line) {
+					LOG.log(Log.Level.INFO, "", line);
+				}
+			});
+			writeMetrics();
+		}
 		System.exit(retCode);
 	}
 
+	/**
+	 * Writes the metrics file if configured
+	 */
+	private static void writeMetrics() {
+		if (METRICS_FILE == null)
+			return;
+		try {
+			METRICS.writePrometheus(Paths.get(METRICS_FILE));
+		} catch (IOException e) {
+			LOG.log(Log.Level.WARN, "", "Failed to write metrics to " + METRICS_FILE + ": " + e.getMessage());
+		}
+	}
+
 	private static void usage() {
 		for (String usage : USAGE)
 			System.out.println(usage);
@@ -313,12 +1066,89 @@ public class Main implements NurApiListener {
 	}
 
 
+	/**
+	 * Stores the setup to the flash of the module and counts the write
+	 */
+	private void storeSetup(int flags) throws Exception {
+		persistentWrites++;
+		long start = System.nanoTime();
+		this.nurApi.storeSetup(flags);
+		METRICS.record("storeSetup", start);
+	}
+
+	/**
+	 * @return the mode of the module, "A" for application, "B" for boot
+	 *         loader
+	 */
+	private String mode() throws Exception {
+		long start = System.nanoTime();
+		String mode = this.nurApi.getMode();
+		METRICS.record("getMode", start);
+		return mode;
+	}
+
+	private NurRespReaderInfo readerInfo() throws Exception {
+		long start = System.nanoTime();
+		NurRespReaderInfo info = this.nurApi.getReaderInfo();
+		METRICS.record("getReaderInfo", start);
+		return info;
+	}
+
+	private NurSetup moduleSetup() throws Exception {
+		long start = System.nanoTime();
+		NurSetup setup = this.nurApi.getModuleSetup();
+		METRICS.record("getModuleSetup", start);
+		return setup;
+	}
+
+	private int setupAntennaMask() throws Exception {
+		long start = System.nanoTime();
+		int mask = this.nurApi.getSetupAntennaMask();
+		METRICS.record("getSetupAntennaMask", start);
+		return mask;
+	}
+
+	private NurGPIOConfig[] gpioConfig() throws Exception {
+		long start = System.nanoTime();
+		NurGPIOConfig[] cfg = this.nurApi.getGPIOConfigure();
+		METRICS.record("getGPIOConfigure", start);
+		return cfg;
+	}
+
+	private NurRespGPIOStatus gpioStatus(int io) throws Exception {
+		long start = System.nanoTime();
+		NurRespGPIOStatus status = this.nurApi.getGPIOStatus(io);
+		METRICS.record("getGPIOStatus", start);
+		return status;
+	}
+
+	private NurIRConfig irConfig() throws Exception {
+		long start = System.nanoTime();
+		NurIRConfig config = this.nurApi.getIRConfig();
+		METRICS.record("getIRConfig", start);
+		return config;
+	}
+
+	private NurRespDevCaps deviceCaps() throws Exception {
+		long start = System.nanoTime();
+		NurRespDevCaps caps = this.nurApi.getDeviceCaps();
+		METRICS.record("getDeviceCaps", start);
+		return caps;
+	}
+
+	private NurRespRegionInfo regionInfo() throws Exception {
+		long start = System.nanoTime();
+		NurRespRegionInfo info = this.nurApi.getRegionInfo();
+		METRICS.record("getRegionInfo", start);
+		return info;
+	}
+
 	private void checkModuleMode(String desiredState) throws Exception {
-		if (this.nurApi.getMode().equals("B") && "A".equals(desiredState)) {
+		if (mode().equals("B") && "A".equals(desiredState)) {
 			log("Module is in wrong mode to perform operation.");
 			throw new IllegalStateException("Module must be in application mode to perform operation.");
 		}
-		if (this.nurApi.getMode().equals("A") && "B".equals(desiredState)) {
+		if (mode().equals("A") && "B".equals(desiredState)) {
 			log("Module is in wrong mode to perform operation.");
 			throw new IllegalStateException("Module must be in boot loader mode to perform operation.");
 		}
@@ -329,31 +1159,39 @@ public class Main implements NurApiListener {
 
 		switch (mode) {
 		case "a":
-			if (nurApi.getMode().equals("A")) {
+			if (mode().equals("A")) {
 				log("Module already in application mode");
 				disconnect(true);
 			} else {
 				log("Switching to application mode");
 				try {
+					long start = System.nanoTime();
 					this.nurApi.exitBootLoader();
+					METRICS.record("exitBootLoader", start);
 				} catch (NurApiException e) {
-					System.out.println(e.error);
+					log(Log.Level.ERROR, "Mode switch failed with error " + e.error);
 					throw e;
 				}
+				if (session)
+					releaseAfterModeSwitch();
 			}
 			break;
 		case "b":
-			if (nurApi.getMode().equals("B")) {
+			if (mode().equals("B")) {
 				log("Module already in boot loader mode");
 				disconnect(true);
 			} else {
 				log("Switching to boot loader mode");
 				try {
+					long start = System.nanoTime();
 					this.nurApi.moduleBoot(false);
+					METRICS.record("moduleBoot", start);
 				} catch (NurApiException e) {
-					System.out.println(e.error);
+					log(Log.Level.ERROR, "Mode switch failed with error " + e.error);
 					throw e;
 				}
+				if (session)
+					releaseAfterModeSwitch();
 			}
 			break;
 		default:
@@ -361,7 +1199,8 @@ public class Main implements NurApiListener {
 		}
 	}
 
-	private void updateFirmware(String device, File binFile, boolean pretend) throws Exception {
+	private void updateFirmware(String device, File binFile, boolean pretend, boolean fast, boolean json)
+			throws Exception {
 		connect(device);
 
 		try { checkModuleMode("B"); }
@@ -372,35 +1211,215 @@ public class Main implements NurApiListener {
 		
 		if (pretend)
 			log("Pretending firmware update");
-		else {
+		else
 			log("Installing firmware update");
-			this.nurApi.programApplicationFile(binFile.getAbsolutePath());
-		}
+		program(device, binFile, pretend, fast, false, json);
 		
 		disconnect(true);
 
 	}
 
-	private boolean canUpdate(String device, File firmwareFile) throws Exception {
-		connect(device);
+	/**
+	 * Programs a binary file. In fast mode the link is switched to the
+	 * highest possible baud rate for the transfer and restored afterwards, a
+	 * transfer failing at the higher rate is repeated at the default rate.
+	 * The progress is reported as text or JSON lines.
+	 */
+	private void program(String device, File binFile, boolean pretend, boolean fast, boolean bootLoader,
+			boolean json) throws Exception {
+		if (pretend) {
+			// the baud rate is not negotiated, it changes the settings of the
+			// module
+			long size = binFile.length();
+			log("Estimated transfer time at " + BaudRateNegotiator.DEFAULT_BAUDRATE + " baud: "
+					+ BaudRateNegotiator.estimateTransferTime(size, BaudRateNegotiator.DEFAULT_BAUDRATE) + " ms");
+			if (fast)
+				log("Estimated transfer time at up to " + BaudRateNegotiator.BAUDRATES[0] + " baud: "
+						+ BaudRateNegotiator.estimateTransferTime(size, BaudRateNegotiator.BAUDRATES[0]) + " ms");
+			return;
+		}
+		BaudRateNegotiator negotiator = null;
+		if (fast) {
+			negotiator = new BaudRateNegotiator(new NurApiLink(nurApi, device, factory), logger);
+			negotiator.negotiate();
+		}
+		try {
+			long start = System.currentTimeMillis();
+			try {
+				programFile(device, binFile, bootLoader, json);
+			} catch (Exception e) {
+				if (negotiator == null || negotiator.getBaudrate() == BaudRateNegotiator.DEFAULT_BAUDRATE)
+					throw e;
+				log("Programming at " + negotiator.getBaudrate() + " baud failed, retrying at "
+						+ BaudRateNegotiator.DEFAULT_BAUDRATE + " baud: " + e.getMessage());
+				negotiator.restore();
+				start = System.currentTimeMillis();
+				programFile(device, binFile, bootLoader, json);
+			}
+			log("Programmed " + binFile.length() + " bytes in " + (System.currentTimeMillis() - start) + " ms");
+		} finally {
+			if (negotiator != null)
+				negotiator.restore();
+		}
+	}
 
+	private void programFile(String device, File binFile, boolean bootLoader, boolean json) throws Exception {
+		ProgrammingProgress progress = new ProgrammingProgress(device, binFile.length(), PROGRESS_INTERVAL, json,
+				METRICS.histogram("programming page"), json ? new Consumer<String>() {
+					@Override
+					public void accept(String line) {
+						// called by the listener thread, which must not wait
+						// for the log
+						tryPrint(line);
+					}
+				} : logger);
+		progress.start();
+		this.progress = progress;
+		long start = System.nanoTime();
 		try {
+			if (bootLoader)
+				this.nurApi.programBootloaderFile(binFile.getAbsolutePath());
+			else
+				this.nurApi.programApplicationFile(binFile.getAbsolutePath());
+			METRICS.record(bootLoader ? "programBootloaderFile" : "programApplicationFile", start);
+		} finally {
+			this.progress = null;
+			progress.stop();
+		}
+	}
+
+	/**
+	 * Upgrades the firmware in one pipeline: checks the version, enters the
+	 * boot loader, programs the firmware, exits to the application and
+	 * verifies the installed version. Steps which are not needed are
+	 * skipped. An older firmware is only installed if forced.
+	 */
+	private void upgrade(String device, File binFile, boolean pretend, boolean fast, boolean json, boolean force)
+			throws Exception {
+		boolean wasSession = session;
+		session = true;
+		try {
+			connect(device);
+
+			String newFwVersion = getFirmwareVersion(binFile);
+			log("New firmware version:     " + newFwVersion);
+			log("File:                     " + binFile.getAbsolutePath());
+
+			if (mode().equals("A")) {
+				String currentFwVersion = readerInfo().swVersion;
+				int result = FirmwareVersion.compare(newFwVersion, currentFwVersion);
+				if (result == 0) {
+					log("Firmware " + currentFwVersion + " already installed, skipping upgrade");
+					return;
+				}
+				if (result < 0 && !force) {
+					log("Installed firmware " + currentFwVersion + " is newer, skipping upgrade (-o to downgrade)");
+					return;
+				}
+				log("New firmware is " + FirmwareVersion.describe(currentFwVersion, newFwVersion));
+				if (pretend) {
+					log("Pretending firmware upgrade from " + currentFwVersion + " to " + newFwVersion);
+					return;
+				}
+				log("Switching to boot loader mode");
+				long start = System.nanoTime();
+				this.nurApi.moduleBoot(false);
+				METRICS.record("moduleBoot", start);
+				releaseAfterModeSwitch();
+				device = reconnect();
+				checkModuleMode("B");
+			} else
+				log("Module already in boot loader mode");
+
+			if (pretend)
+				log("Pretending firmware update");
+			else
+				log("Installing firmware update");
+			program(device, binFile, pretend, fast, false, json);
+			if (pretend)
+				return;
+
+			log("Switching to application mode");
+			long start = System.nanoTime();
+			this.nurApi.exitBootLoader();
+			METRICS.record("exitBootLoader", start);
+			releaseAfterModeSwitch();
+			reconnect();
 			checkModuleMode("A");
-		} catch (IllegalStateException e) {
-			disconnect(true);
-			throw e;
+
+			String installedFwVersion = readerInfo().swVersion;
+			if (FirmwareVersion.compare(installedFwVersion, newFwVersion) != 0)
+				throw new IllegalStateException("Firmware version after upgrade is " + installedFwVersion
+						+ " instead of " + newFwVersion);
+			log("Upgraded firmware to " + installedFwVersion);
+		} finally {
+			session = wasSession;
+			if (this.nurApi != null)
+				disconnect(true);
 		}
+	}
+
+	private boolean canUpdate(String device, File firmwareFile, String installedFwVersion) throws Exception {
+		String currentFwVersion = installedFwVersion;
+		String newFwVersion;
+		if (currentFwVersion == null) {
+			connect(device);
+
+			try {
+				checkModuleMode("A");
+			} catch (IllegalStateException e) {
+				disconnect(true);
+				throw e;
+			}
 
-		NurBinFileType type = nurApi.checkNurFwBinaryFile(firmwareFile.getAbsolutePath(), MODULE_TYPE);
-		String currentFwVersion = this.nurApi.getReaderInfo().swVersion;
-		String newFwVersion = type.getVersion();
+			try {
+				newFwVersion = getFirmwareVersion(firmwareFile);
+				currentFwVersion = readerInfo().swVersion;
+			} finally {
+				disconnect(true);
+			}
+		} else {
+			log("Installed firmware version: " + currentFwVersion);
+			newFwVersion = getFirmwareVersion(firmwareFile);
+		}
 		log("New firmware version:     " + newFwVersion);
 		log("File:                     " + firmwareFile.getAbsolutePath());
-		disconnect(true);
-		return !currentFwVersion.equals(newFwVersion);
+		log("New firmware is " + FirmwareVersion.describe(currentFwVersion, newFwVersion));
+		return FirmwareVersion.compare(newFwVersion, currentFwVersion) > 0;
+	}
+
+	/**
+	 * Gets the version of a firmware image from the cache or by parsing it
+	 */
+	private String getFirmwareVersion(File binFile) throws Exception {
+		return FIRMWARE_CACHE.getVersion(binFile, MODULE_TYPE, new FirmwareCache.Parser() {
+			@Override
+			public String parse(File image) throws Exception {
+				if (nurApi != null)
+					return nurApi.checkNurFwBinaryFile(image.getAbsolutePath(), MODULE_TYPE).getVersion();
+				// parsing does not need a connection
+				NurApi api = new NurApi();
+				try {
+					return api.checkNurFwBinaryFile(image.getAbsolutePath(), MODULE_TYPE).getVersion();
+				} finally {
+					api.dispose();
+				}
+			}
+		});
 	}
 
-	private void tune(String device, int antennaId) throws Exception {
+	/**
+	 * Tunes antennas in one session. The antenna mask is only changed in the
+	 * volatile setup while tuning. The tune results of each antenna are saved
+	 * by the tune call itself, the API has no call to save them later. As
+	 * saving them may persist a temporary mask, the mask is stored once at
+	 * the end if any antenna was tuned with a different mask.
+	 * 
+	 * @param antennaIds
+	 *            the antennas or an empty array for all antennas of the
+	 *            current antenna mask
+	 */
+	private void tune(String device, int[] antennaIds) throws Exception {
 		connect(device);
 		
 		try { checkModuleMode("A"); }
@@ -410,41 +1429,97 @@ public class Main implements NurApiListener {
 		}
 		
 		log ("Reading region ID from module.");
-		int regionId = this.nurApi.getModuleSetup().regionId;
-		int antennaMask = this.nurApi.getSetupAntennaMask();
+		int regionId = moduleSetup().regionId;
+		int antennaMask = setupAntennaMask();
 		log("Current antenna mask: " + Integer.toBinaryString(antennaMask));
+
+		if (antennaIds.length == 0)
+			antennaIds = getAntennaIds(antennaMask);
 		
+		if (regionId != NurApi.REGIONID_EU && regionId != NurApi.REGIONID_FCC) {
+			for (int antennaId : antennaIds)
+				log("Unsupported or unspecified region is set. Skipping tune of antenna " + antennaId);
+			disconnect(true);
+			return;
+		}
+
+		boolean storeMask = false;
 		try {
-			if (regionId == NurApi.REGIONID_EU || regionId == NurApi.REGIONID_FCC) {
-				setAntennaMaskForId(antennaId);
-			}
-			
-			if (regionId == NurApi.REGIONID_EU) {		
-				log("Tuning antenna " + antennaId + " for region EU.");				
-				NurTuneResponse[] res = this.nurApi.tuneEUBand(antennaId, true);
-				log("Tuned antenna " + antennaId + " with result " + res[0].dBm + " dBm.");
+			try (AntennaSelection selection = new AntennaSelection(nurApi, antennaMask, logger)) {
+				for (int antennaId : antennaIds) {
+					selection.select(antennaId);
+
+					if (regionId == NurApi.REGIONID_EU) {
+						log("Tuning antenna " + antennaId + " for region EU.");
+						long start = System.nanoTime();
+						NurTuneResponse[] res = this.nurApi.tuneEUBand(antennaId, true);
+						METRICS.record("tuneEUBand", start);
+						persistentWrites++;
+						log("Tuned antenna " + antennaId + " with result " + res[0].dBm + " dBm.");
+					}
+
+					else {
+						log("Tuning antenna " + antennaId + " for FCC regions.");
+						long start = System.nanoTime();
+						NurTuneResponse[] res = this.nurApi.tuneFCCBands(antennaId, true);
+						METRICS.record("tuneFCCBands", start);
+						persistentWrites++;
+						log("Tuned antenna " + antennaId + " with result " + res[0].dBm + " dBm.");
+					}
+					if (AntennaSelection.getMask(antennaId) != antennaMask)
+						storeMask = true;
+				}
 			}
-			
-			else if (regionId == NurApi.REGIONID_FCC) {		
-				log("Tuning antenna " + antennaId + " for FCC regions.");
-				NurTuneResponse[] res = this.nurApi.tuneFCCBands(antennaId, true);
-				log("Tuned antenna " + antennaId + " with result " + res[0].dBm + " dBm.");
+			// the mask is restored in the volatile setup now
+			if (storeMask) {
+				log("Storing antenna mask " + Integer.toBinaryString(antennaMask));
+				storeSetup(NurApi.SETUP_ANTMASK);
 			}
-			else
-				log("Unsupported or unspecified region is set. Skipping tune of antenna " + antennaId);			
-			
-		}
-		catch (Exception ex) {
-			throw ex;
 		}
 		finally {
-			if (regionId == NurApi.REGIONID_EU || regionId == NurApi.REGIONID_FCC)
-				restoreAntennaMask(antennaMask);
 			disconnect(true);
 		}
 	}
 
-	private void autoDetect(String device, int antennaId) throws Exception {
+	/**
+	 * @return the IDs of the antennas of an antenna mask
+	 */
+	private static int[] getAntennaIds(int antennaMask) {
+		int[] masks = new int[] { NurApi.ANTENNAMASK_1, NurApi.ANTENNAMASK_2, NurApi.ANTENNAMASK_3,
+				NurApi.ANTENNAMASK_4 };
+		int count = 0;
+		for (int mask : masks)
+			if ((antennaMask & mask) != 0)
+				count++;
+		int[] ids = new int[count];
+		count = 0;
+		for (int i = 0; i < masks.length; i++)
+			if ((antennaMask & masks[i]) != 0)
+				ids[count++] = i + 1;
+		return ids;
+	}
+
+	/**
+	 * Detects the connection state of antennas from the mean of several
+	 * reflected power samples
+	 * 
+	 * @param antennaIds
+	 *            the antennas or an empty array for all antennas of the
+	 *            current antenna mask
+	 * @param samples
+	 *            the number of samples per antenna
+	 * @param threshold
+	 *            the reflected power in dB below which an antenna is
+	 *            connected
+	 * @param margin
+	 *            the distance in dB to the threshold below which the state
+	 *            is uncertain
+	 * @param interleaved
+	 *            whether to sample the antennas in turns instead of one after
+	 *            another
+	 */
+	private void autoDetect(String device, int[] antennaIds, int samples, double threshold, double margin,
+			boolean interleaved) throws Exception {
 		connect(device);
 		
 		try { checkModuleMode("A"); }
@@ -453,67 +1528,70 @@ public class Main implements NurApiListener {
 			throw e;
 		}
 		
-		int prevAntennaMask = this.nurApi.getSetupAntennaMask();
-		log("Previous antenna mask: " + Integer.toBinaryString(prevAntennaMask));
-		try {
-			
-			setAntennaMaskForId(antennaId);				
-			ReflectedPower reflPower = this.nurApi.getReflectedPower();
-	
-			double rf = Math.sqrt((double) (reflPower.iPart
-					* reflPower.iPart + reflPower.qPart * reflPower.qPart));
-			rf /= ((double) reflPower.divider);
-			rf = Math.log10(rf) * 20.0;
-			if (Double.isInfinite(rf))
-				rf = -30;
-			
-			log("Reflected power info for antenna " + antennaId + ": " + rf);
-			if (rf < 0) log("Antenna " + antennaId + " is CONNECTED");
-			else log("Antenna " + antennaId + " is DISCONNECTED");
-						
+		try (AntennaSelection selection = new AntennaSelection(nurApi, setupAntennaMask(), logger)) {
+			log("Previous antenna mask: " + Integer.toBinaryString(selection.getPreviousMask()));
+			if (antennaIds.length == 0)
+				antennaIds = getAntennaIds(selection.getPreviousMask());
+
+			AntennaDetector detector = new AntennaDetector(antennaIds.length);
+			if (interleaved) {
+				for (int n = 0; n < samples; n++) {
+					for (int i = 0; i < antennaIds.length; i++) {
+						selection.select(antennaIds[i]);
+						detector.add(i, reflectedPower());
+					}
+				}
+			} else {
+				for (int i = 0; i < antennaIds.length; i++) {
+					selection.select(antennaIds[i]);
+					for (int n = 0; n < samples; n++) {
+						detector.add(i, reflectedPower());
+					}
+				}
+			}
+
+			for (int i = 0; i < antennaIds.length; i++) {
+				int antennaId = antennaIds[i];
+				log("Reflected power info for antenna " + antennaId + ": " + detector.getMean(i));
+				if (samples > 1)
+					log(String.format(Locale.ROOT,
+							"Reflected power of antenna %d in dB: samples=%d, min=%.2f, mean=%.2f, max=%.2f, stddev=%.2f",
+							antennaId, detector.getCount(i), detector.getMin(i), detector.getMean(i),
+							detector.getMax(i), detector.getStdDev(i)));
+				log("Antenna " + antennaId + " is " + detector.decide(i, threshold, margin)
+						+ String.format(Locale.ROOT, " (%.2f dB from threshold %.2f dB)",
+								Math.abs(detector.getMean(i) - threshold), threshold));
+			}
 
-		} catch (Exception ex) { 
-			throw ex; 			
 		} finally {
-			restoreAntennaMask(prevAntennaMask);
 			disconnect(true);
 		}		
 	}
 	
-	private void setAntennaMaskForId(int antennaId) throws Exception {
-		int antMask = 0;
-		
-		switch (antennaId) {
-			case 1: 
-				antMask = NurApi.ANTENNAMASK_1;
-				break;
-			case 2: 
-				antMask = NurApi.ANTENNAMASK_2;
-				break;
-			case 3: 
-				antMask = NurApi.ANTENNAMASK_3;
-				break;
-			default: 
-				antMask = NurApi.ANTENNAMASK_4;
-				break;
-		}
-
-		if (this.nurApi.getSetupAntennaMask() == antMask) return;
-		
-		log("Setting antenna mask: " + Integer.toBinaryString(antMask));
-		this.nurApi.setSetupAntennaMask(antMask);
-		this.nurApi.storeSetup(NurApi.SETUP_ANTMASK);  
-	}
-	
-	private void restoreAntennaMask(int prevAntennaMask) throws Exception {
-		if (this.nurApi.getSetupAntennaMask() != prevAntennaMask) {
-			log("Restoring antenna mask " + Integer.toBinaryString(prevAntennaMask));
-			this.nurApi.setSetupAntennaMask(prevAntennaMask);
-			this.nurApi.storeSetup(NurApi.SETUP_ANTMASK);
-		}
-	}
-	
-	private void setGpioConfig(String device, int io, int type, int edge, boolean enabled) throws Exception {
+	/**
+	 * Monitors the reflected power of antennas until the duration elapsed or
+	 * the program is stopped. The state of all antennas is logged after each
+	 * full history.
+	 * 
+	 * @param antennaIds
+	 *            the antennas or an empty array for all antennas of the
+	 *            current antenna mask
+	 * @param interval
+	 *            the time between two rounds of readings in milliseconds
+	 * @param history
+	 *            the number of readings kept per antenna
+	 * @param threshold
+	 *            the reflected power in dB below which an antenna is
+	 *            connected
+	 * @param margin
+	 *            the hysteresis of the connection state in dB
+	 * @param drift
+	 *            the drift of the mean in dB which raises an event or 0
+	 * @param duration
+	 *            the duration in seconds or 0 to run until stopped
+	 */
+	private void monitor(String device, int[] antennaIds, int interval, int history, double threshold,
+			double margin, double drift, int duration) throws Exception {
 		connect(device);
 		
 		try { checkModuleMode("A"); }
@@ -521,47 +1599,62 @@ public class Main implements NurApiListener {
 			disconnect(true);
 			throw e;
 		}
-		
-		log("Acquiring current GPIO config");
-		NurGPIOConfig[] cfg = null;
-		
-		try { cfg = nurApi.getGPIOConfigure(); }
-		catch (Exception ex) {
-			disconnect(true);
-			throw ex;
-		}
-		
-		log("Current GPIO config:");
-		logGpio(cfg);
-		
-		if (io < 0 || io > cfg.length - 1) {
-			log("Illegal GPIO cannot be set: " + io);	
-			disconnect(true);
-		}
-		
-		cfg[io].type = type;
-		cfg[io].edge = edge;
-		cfg[io].enabled = enabled;
-		
-		log("Setting new GPIO config:");
-		try { nurApi.setGPIOConfigure(cfg); }
-		catch (Exception ex) {
-			disconnect(true);
-			throw ex;
-		}
-		logGpio(cfg);
-		
-		log("Storing config");
-		try { nurApi.storeSetup(NurApi.STORE_ALL); }
-		catch (Exception ex) {
+
+		try (AntennaSelection selection = new AntennaSelection(nurApi, setupAntennaMask(), logger)) {
+			if (antennaIds.length == 0)
+				antennaIds = getAntennaIds(selection.getPreviousMask());
+
+			AntennaMonitor monitor = new AntennaMonitor(antennaIds, history, threshold, margin, drift,
+					new AntennaMonitor.Listener() {
+						@Override
+						public void stateChanged(int antennaId, String state, double db) {
+							log(String.format(Locale.ROOT, "Antenna %d is %s (%.2f dB)", antennaId, state, db));
+						}
+
+						@Override
+						public void drifted(int antennaId, double baseline, double mean) {
+							log(String.format(Locale.ROOT, "Antenna %d drifted from %.2f dB to %.2f dB", antennaId,
+									baseline, mean));
+						}
+					});
+
+			log("Monitoring antennas " + Arrays.toString(antennaIds) + " every " + interval + " ms");
+			long end = duration > 0 ? System.currentTimeMillis() + duration * 1000L : Long.MAX_VALUE;
+			long rounds = 0;
+			while (System.currentTimeMillis() < end) {
+				long start = System.currentTimeMillis();
+				for (int i = 0; i < antennaIds.length; i++) {
+					selection.select(antennaIds[i]);
+					monitor.add(i, reflectedPower());
+				}
+				if (++rounds % history == 0)
+					for (String line : monitor.snapshot())
+						log(line);
+				long sleep = interval - (System.currentTimeMillis() - start);
+				if (sleep > 0)
+					Thread.sleep(sleep);
+			}
+			for (String line : monitor.snapshot())
+				log(line);
+		} finally {
 			disconnect(true);
-			throw ex;
 		}
-		
-		disconnect(true);
 	}
-	
-	private void setGpioState(String device, int io, boolean state) throws Exception {
+
+	/**
+	 * Runs a stream inventory and reports its throughput every second and at
+	 * the end
+	 * 
+	 * @param antennaIds
+	 *            the antennas or an empty array for all antennas of the
+	 *            current antenna mask
+	 * @param duration
+	 *            the duration in seconds
+	 * @param window
+	 *            the time in seconds after which an unseen tag counts as new
+	 *            again or 0 to count each tag once
+	 */
+	private void inventory(String device, int[] antennaIds, int duration, int window) throws Exception {
 		connect(device);
 		
 		try { checkModuleMode("A"); }
@@ -569,29 +1662,62 @@ public class Main implements NurApiListener {
 			disconnect(true);
 			throw e;
 		}
-		
-		log("Acquiring current GPIO state");
-		NurRespGPIOStatus status;
-		try { status = nurApi.getGPIOStatus(io); }
-		catch (Exception ex) {
-			disconnect(true);
-			throw ex;
-		}
-		
-		log("Current GPIO " + io + " state:");
-		logObject(NurRespGPIOStatus.class, status);		
-		
-		log("Changing GPIO " + io + " state to " + (state ? "on" : "off"));
-		try { nurApi.setGPIOStatus(io, state); }
-		catch (Exception ex) {
+
+		try (AntennaSelection selection = new AntennaSelection(nurApi, setupAntennaMask(), logger)) {
+			if (antennaIds.length > 0)
+				selection.select(antennaIds);
+
+			InventoryStream stream = new InventoryStream(nurApi, INVENTORY_CAPACITY, window * 1000L);
+			this.inventoryStream = stream;
+			log("Running inventory for " + duration + " s");
+			long start = System.nanoTime();
+			long reads = 0;
+			long tags = 0;
+			try {
+				stream.start();
+				for (int second = 1; second <= duration && stream.isRunning(); second++) {
+					long sleep = start + second * 1000000000L - System.nanoTime();
+					if (sleep > 0)
+						Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+					long currentReads = stream.getReads();
+					long currentTags = stream.getUniqueTags();
+					log(String.format(Locale.ROOT, "%d s: %d reads/s, %d new tags/s, %d tags, mean round latency %.1f ms",
+							second, currentReads - reads, currentTags - tags, currentTags,
+							stream.getMeanRoundLatency() / 1e6));
+					reads = currentReads;
+					tags = currentTags;
+				}
+			} finally {
+				stream.stop();
+				this.inventoryStream = null;
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			log(String.format(Locale.ROOT, "Inventory result: %d reads, %d unique tags, %d rounds, %d events in %.2f s",
+					stream.getReads(), stream.getUniqueTags(), stream.getRounds(), stream.getEvents(), seconds));
+			log(String.format(Locale.ROOT, "Throughput: %.1f reads/s, %.1f unique tags/s", stream.getReads() / seconds,
+					stream.getUniqueTags() / seconds));
+			log(String.format(Locale.ROOT, "Round latency: min %.1f ms, mean %.1f ms, max %.1f ms",
+					stream.getMinRoundLatency() / 1e6, stream.getMeanRoundLatency() / 1e6,
+					stream.getMaxRoundLatency() / 1e6));
+			if (stream.getDroppedTags() > 0)
+				log("Dropped " + stream.getDroppedTags() + " tags, more than " + INVENTORY_CAPACITY + " tags in window");
+		} finally {
 			disconnect(true);
-			throw ex;
 		}
-		
-		disconnect(true);
 	}
-	
-	private void resetConfig(String device, boolean fourAntennas) throws Exception {
+
+	/**
+	 * Writes the IO events of the module until the duration elapsed or the
+	 * program is stopped. The latency is reported every 10 seconds.
+	 * 
+	 * @param duration
+	 *            the duration in seconds or 0 to run until stopped
+	 * @param port
+	 *            the local port for clients or 0 to write to stdout
+	 * @param json
+	 *            whether to write JSON lines
+	 */
+	private void watchIo(String device, int duration, int port, boolean json) throws Exception {
 		connect(device);
 
 		try { checkModuleMode("A"); }
@@ -599,91 +1725,175 @@ public class Main implements NurApiListener {
 			disconnect(true);
 			throw e;
 		}
-			
-		log("Acquiring current GPIO config");
-		NurGPIOConfig[] cfg = null;
-		
-		try { cfg = nurApi.getGPIOConfigure(); }
-		catch (Exception ex) {
+
+		IoWatcher watcher = new IoWatcher(IO_WATCH_CAPACITY, json);
+		try {
+			if (port > 0) {
+				watcher.listen(port);
+				log("Waiting for clients on port " + port);
+			} else
+				watcher.addOutput(System.out);
+			watcher.start();
+			this.ioWatcher = watcher;
+			log("Watching IO changes" + (duration > 0 ? " for " + duration + " s" : ""));
+			long end = duration > 0 ? System.currentTimeMillis() + duration * 1000L : Long.MAX_VALUE;
+			while (System.currentTimeMillis() < end) {
+				Thread.sleep(Math.max(0, Math.min(10000, end - System.currentTimeMillis())));
+				if (System.currentTimeMillis() < end)
+					logIoWatch(watcher);
+			}
+		} finally {
+			this.ioWatcher = null;
+			watcher.stop();
 			disconnect(true);
-			throw ex;
 		}
-		
-		log("Current GPIO config:");
-		logGpio(cfg);
-		
-		log("Current antenna mask: " + nurApi.getSetupAntennaMask());
-		
-		if (fourAntennas) {
-			
-			log("Setting GPIOs for 4 antennas");
-			
-			cfg[0].type = NurApi.GPIO_TYPE_ANTCTL2;
-			cfg[0].edge = NurApi.GPIO_EDGE_FALLING;
-			cfg[0].enabled = true;
-			
-			cfg[1].type = NurApi.GPIO_TYPE_ANTCTL1;
-			cfg[1].edge = NurApi.GPIO_EDGE_FALLING;
-			cfg[1].enabled = true;
-			
-			cfg[2].type = NurApi.GPIO_TYPE_RFIDON;
-			cfg[2].edge = NurApi.GPIO_EDGE_RISING;
-			cfg[2].enabled = true;
-			
-			cfg[3].type = NurApi.GPIO_TYPE_RFIDON;
-			cfg[3].edge = NurApi.GPIO_EDGE_RISING;
-			cfg[3].enabled = true;
-			
-			cfg[4].type = NurApi.GPIO_TYPE_INPUT;
-			cfg[4].edge = NurApi.GPIO_EDGE_FALLING;
-			cfg[4].enabled = true;
-			
-			log("Setting new GPIO config:");
-			nurApi.setGPIOConfigure(cfg);
+		logIoWatch(watcher);
+	}
+
+	private void logIoWatch(IoWatcher watcher) {
+		log(String.format(Locale.ROOT, "IO events: %d written, %d dropped, latency min %.1f us, mean %.1f us, max %.1f us",
+				watcher.getCount(), watcher.getDropped(), watcher.getMinLatency() / 1e3,
+				watcher.getMeanLatency() / 1e3, watcher.getMaxLatency() / 1e3));
+	}
+
+	/**
+	 * Configures several GPIOs with a single write and store. The GPIOs are
+	 * checked before anything is written.
+	 */
+	private void setGpioConfig(String device, int[] ios, int[] types, int[] edges, boolean[] enabled)
+			throws Exception {
+		long start = System.nanoTime();
+		connect(device);
+		log("Connecting took " + millis(start) + " ms");
+
+		try {
+			checkModuleMode("A");
+
+			log("Acquiring current GPIO config");
+			start = System.nanoTime();
+			NurGPIOConfig[] cfg = gpioConfig();
+			log("Acquiring GPIO config took " + millis(start) + " ms");
+
+			log("Current GPIO config:");
 			logGpio(cfg);
-			
-			int mask = NurApi.ANTENNAMASK_1 | NurApi.ANTENNAMASK_2 | NurApi.ANTENNAMASK_3 | NurApi.ANTENNAMASK_4;
-			log("Setting antenna mask for 4 antennas: " + mask);
-			nurApi.setSetupAntennaMask(mask);
+
+			gpioCount = cfg.length;
+			checkGpios(ios, cfg.length);
+
+			boolean changed = false;
+			for (int i = 0; i < ios.length; i++) {
+				NurGPIOConfig c = cfg[ios[i]];
+				if (c.type != types[i] || c.edge != edges[i] || c.enabled != enabled[i]) {
+					c.type = types[i];
+					c.edge = edges[i];
+					c.enabled = enabled[i];
+					changed = true;
+				}
+			}
+
+			if (changed) {
+				log("Setting new GPIO config:");
+				start = System.nanoTime();
+				nurApi.setGPIOConfigure(cfg);
+				METRICS.record("setGPIOConfigure", start);
+				log("Setting GPIO config took " + millis(start) + " ms");
+				logGpio(cfg);
+
+				log("Storing config");
+				start = System.nanoTime();
+				storeSetup(NurApi.STORE_GPIO);
+				log("Storing config took " + millis(start) + " ms");
+			} else
+				log("GPIO config is up to date");
+		} catch (Exception e) {
+			disconnect(true);
+			throw e;
 		}
-		
-		else {
-			
-			log("Setting GPIOs for 2 antennas");
-			
-			cfg[0].type = NurApi.GPIO_TYPE_ANTCTL1;
-			cfg[0].edge = NurApi.GPIO_EDGE_FALLING;
-			cfg[0].enabled = true;
-			
-			cfg[1].type = NurApi.GPIO_TYPE_RFIDON;
-			cfg[1].edge = NurApi.GPIO_EDGE_RISING;
-			cfg[1].enabled = true;
-			
-			cfg[2].type = NurApi.GPIO_TYPE_RFIDON;
-			cfg[2].edge = NurApi.GPIO_EDGE_RISING;
-			cfg[2].enabled = true;
-			
-			cfg[3].type = NurApi.GPIO_TYPE_INPUT;
-			cfg[3].edge = NurApi.GPIO_EDGE_FALLING;
-			cfg[3].enabled = true;
-			
-			cfg[4].type = NurApi.GPIO_TYPE_INPUT;
-			cfg[4].edge = NurApi.GPIO_EDGE_FALLING;
-			cfg[4].enabled = true;
-			
-			log("Setting new GPIO config:");
-			nurApi.setGPIOConfigure(cfg);
-			logGpio(cfg);
-			
-			int mask = NurApi.ANTENNAMASK_1 | NurApi.ANTENNAMASK_2;
-			log("Setting antenna mask for 2 antennas: " + mask);
-			nurApi.setSetupAntennaMask(mask);
+
+		start = System.nanoTime();
+		disconnect(true);
+		log("Disconnecting took " + millis(start) + " ms");
+	}
+
+	/**
+	 * Sets the state of several GPIOs in one connection. The GPIOs are
+	 * checked before anything is written.
+	 */
+	private void setGpioState(String device, int[] ios, boolean[] states) throws Exception {
+		long start = System.nanoTime();
+		connect(device);
+		log("Connecting took " + millis(start) + " ms");
+
+		try {
+			checkModuleMode("A");
+
+			start = System.nanoTime();
+			checkGpios(ios, getGpioCount());
+
+			log("Acquiring current GPIO state");
+			for (int io : ios) {
+				log("Current GPIO " + io + " state:");
+				logObject(NurRespGPIOStatus.class, gpioStatus(io));
+			}
+			log("Acquiring GPIO state took " + millis(start) + " ms");
+
+			for (int i = 0; i < ios.length; i++) {
+				log("Changing GPIO " + ios[i] + " state to " + (states[i] ? "on" : "off"));
+				start = System.nanoTime();
+				nurApi.setGPIOStatus(ios[i], states[i]);
+				METRICS.record("setGPIOStatus", start);
+				log("Changing GPIO " + ios[i] + " state took " + millis(start) + " ms");
+			}
+		} catch (Exception e) {
+			disconnect(true);
+			throw e;
 		}
-		
-		log("Storing config");
-		nurApi.storeSetup(NurApi.STORE_ALL);
-		
+
+		start = System.nanoTime();
 		disconnect(true);
+		log("Disconnecting took " + millis(start) + " ms");
+	}
+
+	/**
+	 * @return the number of GPIOs of the connected module, the GPIO config
+	 *         is only read for the first call of a connection
+	 */
+	private int getGpioCount() throws Exception {
+		if (gpioCount < 0)
+			gpioCount = gpioConfig().length;
+		return gpioCount;
+	}
+
+	/**
+	 * Measures the reflected power of the selected antenna
+	 *
+	 * @return the reflected power in dB
+	 */
+	private double reflectedPower() throws Exception {
+		long start = System.nanoTime();
+		ReflectedPower reflPower = this.nurApi.getReflectedPower();
+		METRICS.record("getReflectedPower", start);
+		return AntennaDetector.toDb(reflPower.iPart, reflPower.qPart, reflPower.divider);
+	}
+
+	/**
+	 * Checks that the GPIOs exist on the module
+	 *
+	 * @throws IllegalArgumentException
+	 *             if a GPIO does not exist
+	 */
+	private void checkGpios(int[] ios, int count) {
+		for (int io : ios) {
+			if (io < 0 || io >= count)
+				throw new IllegalArgumentException("Illegal GPIO cannot be set: " + io + ", module has " + count + " GPIOs");
+		}
+	}
+
+	/**
+	 * @return the milliseconds since the start in nanoseconds
+	 */
+	private static long millis(long start) {
+		return (System.nanoTime() - start) / 1000000;
 	}
 	
 	private void displayConfig(String device) throws Exception {
@@ -693,30 +1903,30 @@ public class Main implements NurApiListener {
     		
     		log();
     		log("Current GPIO config:");
-    		logGpio(nurApi.getGPIOConfigure());
+    		logGpio(gpioConfig());
     
     		log();
-    		log("Current antenna mask: " + nurApi.getSetupAntennaMask());
+    		log("Current antenna mask: " + setupAntennaMask());
     		
     		log();
     		log("Current module setup:");
-    		logObject(NurSetup.class, nurApi.getModuleSetup());
+    		logObject(NurSetup.class, moduleSetup());
     		
     		log();
     		log("Current IR config:");
-    		logObject(NurIRConfig.class, nurApi.getIRConfig());
+    		logObject(NurIRConfig.class, irConfig());
     		
     		log();
     		log("Current reader info:");
-    		logObject(NurRespReaderInfo.class, nurApi.getReaderInfo());
+    		logObject(NurRespReaderInfo.class, readerInfo());
     		
     		log();
     		log("Current device capabilites:");
-    		logObject(NurRespDevCaps.class, nurApi.getDeviceCaps());
+    		logObject(NurRespDevCaps.class, deviceCaps());
     		
     		log();
     		log("Current region info:");
-    		logObject(NurRespRegionInfo.class, nurApi.getRegionInfo());
+    		logObject(NurRespRegionInfo.class, regionInfo());
     		
     	}
 		catch (Exception e) {
@@ -726,7 +1936,131 @@ public class Main implements NurApiListener {
 		disconnect(true);
 	}
 
-	private void updateBootLoader(String device, File binFile, boolean pretend) throws Exception {
+	/**
+	 * Saves the writable module configuration
+	 */
+	private void saveConfig(String device, File file) throws Exception {
+		connect(device);
+		try {
+			checkModuleMode("A");
+
+			ConfigSnapshot snapshot = ConfigSnapshot.of(gpioConfig(), moduleSetup(), renderer);
+			snapshot.save(file.toPath(), "NUR module configuration, firmware " + readerInfo().swVersion);
+			log("Saved " + snapshot.getSettings().size() + " settings to " + file);
+		} catch (Exception e) {
+			disconnect(true);
+			throw e;
+		}
+		disconnect(true);
+	}
+
+	/**
+	 * Applies a hardware profile
+	 */
+	private void applyProfile(String device, String name, boolean pretend) throws Exception {
+		HardwareProfile profile = HardwareProfile.find(name, PROFILES);
+		log("Applying profile " + profile);
+		applyConfig(device, profile.getSettings(), pretend);
+	}
+
+	/**
+	 * Applies a configuration. Only the groups with differing settings are
+	 * written and stored, nothing is written if the module already has the
+	 * configuration.
+	 */
+	private void applyConfig(String device, ConfigSnapshot target, boolean pretend) throws Exception {
+		connect(device);
+		try {
+			checkModuleMode("A");
+
+			List<ConfigSnapshot.Change> changes = ConfigSnapshot.of(gpioConfig(), moduleSetup(), renderer).diff(target);
+			if (changes.isEmpty()) {
+				log("Configuration is up to date");
+				disconnect(true);
+				return;
+			}
+
+			Map<String, List<ConfigSnapshot.Change>> groups = new LinkedHashMap<>();
+			for (ConfigSnapshot.Change change : changes) {
+				log("Setting " + change);
+				List<ConfigSnapshot.Change> group = groups.get(change.group());
+				if (group == null)
+					groups.put(change.group(), group = new ArrayList<>());
+				group.add(change);
+			}
+			// check the setup before anything is written
+			int setupFlags = groups.containsKey(ConfigSnapshot.SETUP)
+					? ConfigSnapshot.getSetupFlags(groups.get(ConfigSnapshot.SETUP)) : 0;
+
+			if (pretend) {
+				log("Pretending configuration, " + changes.size() + " setting(s) differ");
+				disconnect(true);
+				return;
+			}
+
+			int storeFlags = 0;
+			if (groups.containsKey(ConfigSnapshot.GPIO)) {
+				NurGPIOConfig[] cfg = gpioConfig();
+				for (ConfigSnapshot.Change change : groups.get(ConfigSnapshot.GPIO))
+					ConfigSnapshot.assign(cfg, change);
+				log("Setting new GPIO config");
+				long start = System.nanoTime();
+				nurApi.setGPIOConfigure(cfg);
+				METRICS.record("setGPIOConfigure", start);
+				storeFlags |= NurApi.STORE_GPIO;
+			}
+			if (groups.containsKey(ConfigSnapshot.SETUP)) {
+				NurSetup setup = moduleSetup();
+				for (ConfigSnapshot.Change change : groups.get(ConfigSnapshot.SETUP))
+					ConfigSnapshot.assign(setup, change);
+				log("Setting new module setup");
+				long start = System.nanoTime();
+				nurApi.setModuleSetup(setup, setupFlags);
+				METRICS.record("setModuleSetup", start);
+				storeFlags |= NurApi.STORE_RF;
+			}
+			if (storeFlags != 0) {
+				log("Storing config");
+				storeSetup(storeFlags);
+			}
+
+			List<ConfigSnapshot.Change> remaining = ConfigSnapshot.of(gpioConfig(), moduleSetup(), renderer).diff(target);
+			if (!remaining.isEmpty())
+				throw new IllegalStateException("Module did not accept " + remaining);
+		} catch (Exception e) {
+			disconnect(true);
+			throw e;
+		}
+		disconnect(true);
+	}
+
+	/**
+	 * Prints the module configuration as one JSON object
+	 */
+	private void displayConfigJson(String device) throws Exception {
+		connect(device);
+		try {
+			checkModuleMode("A");
+
+			StringBuilder json = new StringBuilder(4096);
+			json.append("{\"gpio\":").append(renderer.json(NurGPIOConfig.class, gpioConfig()));
+			json.append(",\"antennaMask\":").append(setupAntennaMask());
+			json.append(",\"setup\":").append(renderer.json(NurSetup.class, moduleSetup()));
+			json.append(",\"irConfig\":").append(renderer.json(NurIRConfig.class, irConfig()));
+			json.append(",\"readerInfo\":").append(renderer.json(NurRespReaderInfo.class, readerInfo()));
+			json.append(",\"deviceCaps\":").append(renderer.json(NurRespDevCaps.class, deviceCaps()));
+			json.append(",\"regionInfo\":").append(renderer.json(NurRespRegionInfo.class, regionInfo()));
+			json.append('}');
+			print(json.toString());
+		} catch (Exception e) {
+			disconnect(true);
+			throw e;
+		}
+		disconnect(true);
+	}
+
+	private void updateBootLoader(String device, File binFile, boolean pretend, boolean fast, boolean json)
+			throws Exception {
 		connect(device);
 
 		try { checkModuleMode("B"); }
@@ -737,55 +2071,58 @@ public class Main implements NurApiListener {
 
 		if (pretend)
 			log("Pretending boot loader update");
-		else {
+		else
 			log("Installing boot loader update");
-			this.nurApi.programBootloaderFile(binFile.getAbsolutePath());
-		}
+		program(device, binFile, pretend, fast, true, json);
 		disconnect(true);	
 	}
 
 	private void connect(String device) throws Exception {
-		for (int i = 0; i < RETRY_CONNECT; i++) {
-			try {
-				log("Creating serial port: " + device);
-				this.serialPort = new SerialPort(device, device, 0);
-
-				log("Creating transport");
-				this.transport = new NativeSerialTransport(serialPort,
-						NativeSerialTransport.BAUDRATE_115200);
-
-				log("Creating api");
-				this.nurApi = new NurApi(transport);
-
-				log("Adding listener");
-				this.nurApi.setListener(this);
-
-				log("Connecting");
-				this.nurApi.connect();
+		if (session && this.nurApi != null)
+			return;
+
+		connectionManager.setTimeout(CONNECT_TIMEOUT);
+		connectionManager.setFactory(factory);
+		connectionManager.setLog(logger);
+		connectionManager.setMetrics(METRICS);
+		long start = System.nanoTime();
+		gpioCount = -1;
+		try {
+			this.nurApi = connectionManager.connect(device, this);
+		} finally {
+			METRICS.record("connection", start);
+		}
 
-				if (this.nurApi.getMode().equals("A")) {
-					log("Running in application mode");
-					log("Current firmware version: "
-							+ this.nurApi.getReaderInfo().swVersion);
-				}
+		if (mode().equals("A")) {
+			log("Running in application mode");
+			log("Current firmware version: "
+					+ readerInfo().swVersion);
+		}
 
-				else if (this.nurApi.getMode().equals("B")) {
-					log("Running in boot loader mode");
-					log("Current boot loader version: "
-							+ this.nurApi.getReaderInfo().swVersion);
-				}
-				break;
-			} catch (Exception ex) {
-				Thread.sleep(WAIT_BERFORE_RETRY);
-				log("Connection failed. Retry: " + (i + 1) + "/"
-						+ RETRY_CONNECT);
-			}
+		else if (mode().equals("B")) {
+			log("Running in boot loader mode");
+			log("Current boot loader version: "
+					+ readerInfo().swVersion);
 		}
 	}
 
 	private void disconnect(boolean cleanup) throws Exception {
+		// a session keeps the connection until it is closed
+		if (!session)
+			release(cleanup);
+	}
+
+	private void closeSession() throws Exception {
+		session = false;
+		if (this.nurApi != null)
+			release(true);
+	}
+
+	private void release(boolean cleanup) throws Exception {
 		log("Disconnecting");
+		long start = System.nanoTime();
 		this.nurApi.disconnect();
+		METRICS.record("disconnect", start);
 
 		// log("Waiting for disconnected event");
 		// waitingForSignal = true;
@@ -796,23 +2133,97 @@ public class Main implements NurApiListener {
 			this.cleanup(true); // <== this happens approx. 20 secs later.
 	}
 
+	/**
+	 * Releases the connection of a module which reboots into another mode.
+	 * The API is disposed in the background, so the module can be connected
+	 * again without waiting for the cleanup.
+	 */
+	private void releaseAfterModeSwitch() throws Exception {
+		log("Disconnecting");
+		long start = System.nanoTime();
+		this.nurApi.disconnect();
+		METRICS.record("disconnect", start);
+		this.nurApi.setListener(null);
+		final NurApi previous = this.nurApi;
+		this.nurApi = null;
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				previous.dispose();
+			}
+		}, "dispose");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Connects to the module again after a mode switch
+	 * 
+	 * @return the device
+	 */
+	private String reconnect() throws Exception {
+		String device = waitForDevice(deviceDiscovery);
+		if (device == null)
+			throw new IllegalStateException("Failed to find device after mode switch.");
+		connect(device);
+		return device;
+	}
+
 	private void cleanup(boolean dispose) {
 		log("Cleaning up");
 		this.nurApi.setListener(null);
-		if (dispose)
+		if (dispose) {
+			long start = System.nanoTime();
 			this.nurApi.dispose();
+			METRICS.record("dispose", start);
+		}
 		this.nurApi = null;
-		this.transport = null;
-		this.serialPort = null;
 	}
 	
 	private void log() {
-		System.out.println();
+		Consumer<String> output = this.output;
+		if (output != null)
+			output.accept("");
+		else
+			LOG.raw("\n");
 	}
 	
 	private void log(String message) {
-		System.out.println(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS")
-				.format(new Date()) + ": " + message);
+		log(Log.Level.INFO, message);
+	}
+
+	private void log(Log.Level level, String message) {
+		Consumer<String> output = this.output;
+		if (output != null)
+			output.accept(level == Log.Level.INFO ? message : level + ": " + message);
+		else
+			LOG.log(level, logPrefix, message);
+	}
+
+	/**
+	 * Prints a line of output data
+	 */
+	private void print(String line) {
+		Consumer<String> output = this.output;
+		if (output != null)
+			output.accept(line);
+		else
+			LOG.print(line);
+	}
+
+	/**
+	 * Prints a line of output data, drops it if the log is full
+	 */
+	private void tryPrint(String line) {
+		Consumer<String> output = this.output;
+		if (output != null)
+			output.accept(line);
+		else
+			LOG.tryPrint(line);
+	}
+
+	private void error(String message) {
+		LOG.log(Log.Level.ERROR, logPrefix, "PROGRAM EXIT WITH ERROR: " + message);
 	}
 	
 	private void logGpio(NurGPIOConfig[] cfg) {
@@ -827,48 +2238,7 @@ public class Main implements NurApiListener {
 	}
 	
 	private void logObject(Class<?> clazz, Object object) {
-		logObject(null, clazz, object);
-	}
-	
-	private void logObject(String prefix, Class<?> clazz, Object object) {
-		for (Field field : clazz.getFields()) {
-			try {
-				if (!(Modifier.isStatic(field.getModifiers()) && Modifier.isFinal(field.getModifiers()))) {
-    				Class<?> type = field.getType();
-    				Object value = field.get(object);
-    				if (type.getName().startsWith("com.nordicid")) {
-    					logObject(prefix != null ? prefix + "." + field.getName() + "." : field.getName() + ".", type, value);
-    				} else {
-    					String str;
-    					if (type.isArray()) {
-    						if (value instanceof int[])
-    							str = Arrays.toString((int[]) value);
-    						else if (value instanceof boolean[])
-    							str = Arrays.toString((boolean[]) value);
-    						else if (value instanceof byte[])
-    							str = Arrays.toString((byte[]) value);
-    						else if (value instanceof short[])
-    							str = Arrays.toString((short[]) value);
-    						else if (value instanceof double[])
-    							str = Arrays.toString((double[]) value);
-    						else if (value instanceof float[])
-    							str = Arrays.toString((float[]) value);
-    						else if (value instanceof long[])
-    							str = Arrays.toString((long[]) value);
-    						else if (value instanceof char[])
-    							str = Arrays.toString((char[]) value);
-    						else
-    							str = Arrays.toString((Object[]) value);
-    					} else {
-    						str = Objects.toString(value);
-    					}
-    					log((prefix != null ? prefix : "") + field.getName() + ": " + str);
-    				}
-				}
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-		}
+		renderer.text(clazz, object, logger);
 	}
 	
 	@Override
@@ -879,13 +2249,16 @@ public class Main implements NurApiListener {
 
 	@Override
 	public void programmingProgressEvent(NurEventProgrammingProgress arg0) {
-		System.out.print(".");
-		if (arg0.currentPage + 1 == arg0.totalPages)
-			System.out.println();
+		ProgrammingProgress progress = this.progress;
+		if (progress != null)
+			progress.update(arg0);
 	}
 
 	@Override
 	public void IOChangeEvent(NurEventIOChange arg0) {
+		IoWatcher watcher = this.ioWatcher;
+		if (watcher != null)
+			watcher.ioChange(arg0);
 	}
 
 	@Override
@@ -922,10 +2295,16 @@ public class Main implements NurApiListener {
 
 	@Override
 	public void inventoryExtendedStreamEvent(NurEventInventory arg0) {
+		InventoryStream stream = this.inventoryStream;
+		if (stream != null)
+			stream.handle(arg0);
 	}
 
 	@Override
 	public void inventoryStreamEvent(NurEventInventory arg0) {
+		InventoryStream stream = this.inventoryStream;
+		if (stream != null)
+			stream.handle(arg0);
 	}
 
 	@Override
@@ -942,6 +2321,9 @@ public class Main implements NurApiListener {
 
 	@Override
 	public void triggeredReadEvent(NurEventTriggeredRead arg0) {
+		IoWatcher watcher = this.ioWatcher;
+		if (watcher != null)
+			watcher.triggeredRead(arg0);
 	}
 
 	@Override
@@ -0,0 +1,197 @@
+package havis.device.rf.nur.tools;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+/**
+ * Records the durations of operations in histograms by name. The
+ * histograms have logarithmic buckets with 16 sub-buckets per power of two,
+ * so quantiles are exact to about 6 percent without keeping the samples.
+ * The histograms are reported as a summary or written as a Prometheus text
+ * file for the textfile collector of the node exporter.
+ */
+class Metrics {
+
+	private static final String METRIC = "havis_nur_tools_operation_duration_seconds";
+	private static final String MAX_METRIC = "havis_nur_tools_operation_duration_max_seconds";
+	private static final double[] QUANTILES = new double[] { 0.5, 0.99 };
+
+	/**
+	 * The durations of an operation in nanoseconds
+	 */
+	static class Histogram {
+
+		private static final int SUB_BITS = 4;
+		private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+		private final long[] counts = new long[(64 - SUB_BITS + 1) << SUB_BITS];
+		private long count;
+		private long sum;
+		private long max;
+
+		synchronized void record(long nanos) {
+			long value = Math.max(0, nanos);
+			counts[index(value)]++;
+			count++;
+			sum += value;
+			max = Math.max(max, value);
+		}
+
+		synchronized long getCount() {
+			return count;
+		}
+
+		synchronized long getSum() {
+			return sum;
+		}
+
+		synchronized long getMax() {
+			return max;
+		}
+
+		/**
+		 * @param quantile
+		 *            the quantile between 0 and 1
+		 * @return the upper bound of the bucket containing the quantile,
+		 *         at most the maximum
+		 */
+		synchronized long getQuantile(double quantile) {
+			if (count == 0)
+				return 0;
+			long rank = Math.max(1, (long) Math.ceil(quantile * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank)
+					return Math.min(upperBound(i), max);
+			}
+			return max;
+		}
+
+		private static int index(long value) {
+			if (value < SUB_BUCKETS)
+				return (int) value;
+			int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+			return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) - SUB_BUCKETS);
+		}
+
+		private static long upperBound(int index) {
+			if (index < SUB_BUCKETS)
+				return index;
+			int shift = (index >>> SUB_BITS) - 1;
+			long lower = (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+			return lower + (1L << shift) - 1;
+		}
+	}
+
+	private final ConcurrentMap<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+
+	/**
+	 * Records the duration of an operation until now
+	 *
+	 * @param operation
+	 *            the name of the operation
+	 * @param start
+	 *            the start of the operation from {@link System#nanoTime()}
+	 */
+	void record(String operation, long start) {
+		histogram(operation).record(System.nanoTime() - start);
+	}
+
+	/**
+	 * @param operation
+	 *            the name of the operation
+	 * @return the histogram of the operation, created if it does not exist
+	 */
+	Histogram histogram(String operation) {
+		Histogram histogram = histograms.get(operation);
+		if (histogram == null) {
+			Histogram created = new Histogram();
+			histogram = histograms.putIfAbsent(operation, created);
+			if (histogram == null)
+				histogram = created;
+		}
+		return histogram;
+	}
+
+	/**
+	 * @return whether no operation was recorded
+	 */
+	boolean isEmpty() {
+		return histograms.isEmpty();
+	}
+
+	/**
+	 * Reports count, median, 99th percentile and maximum of each operation
+	 * in milliseconds
+	 *
+	 * @param lines
+	 *            receives the lines
+	 */
+	void summary(Consumer<String> lines) {
+		lines.accept(String.format(Locale.ROOT, "%-32s %8s %10s %10s %10s", "Operation", "count", "p50 ms", "p99 ms",
+				"max ms"));
+		for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+			Histogram histogram = entry.getValue();
+			lines.accept(String.format(Locale.ROOT, "%-32s %8d %10.2f %10.2f %10.2f", entry.getKey(),
+					histogram.getCount(), histogram.getQuantile(0.5) / 1e6, histogram.getQuantile(0.99) / 1e6,
+					histogram.getMax() / 1e6));
+		}
+	}
+
+	/**
+	 * Writes the histograms in the Prometheus text format. The file is
+	 * replaced atomically, so the collector never reads a partial file.
+	 *
+	 * @param file
+	 *            the file, its name must end with .prom to be collected
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	void writePrometheus(Path file) throws IOException {
+		StringBuilder text = new StringBuilder();
+		text.append("# HELP ").append(METRIC).append(" Duration of module operations and program phases.\n");
+		text.append("# TYPE ").append(METRIC).append(" summary\n");
+		for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+			Histogram histogram = entry.getValue();
+			String operation = "operation=\"" + escape(entry.getKey()) + "\"";
+			for (double quantile : QUANTILES)
+				sample(text, METRIC, operation + ",quantile=\"" + quantile + "\"",
+						seconds(histogram.getQuantile(quantile)));
+			sample(text, METRIC + "_sum", operation, seconds(histogram.getSum()));
+			sample(text, METRIC + "_count", operation, Long.toString(histogram.getCount()));
+		}
+		text.append("# HELP ").append(MAX_METRIC).append(" Maximum duration of module operations and program phases.\n");
+		text.append("# TYPE ").append(MAX_METRIC).append(" gauge\n");
+		for (Map.Entry<String, Histogram> entry : histograms.entrySet())
+			sample(text, MAX_METRIC, "operation=\"" + escape(entry.getKey()) + "\"",
+					seconds(entry.getValue().getMax()));
+
+		Path directory = file.toAbsolutePath().getParent();
+		if (directory != null)
+			Files.createDirectories(directory);
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		Files.write(temp, text.toString().getBytes(StandardCharsets.UTF_8));
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void sample(StringBuilder text, String metric, String labels, String value) {
+		text.append(metric).append('{').append(labels).append("} ").append(value).append('\n');
+	}
+
+	private static String seconds(long nanos) {
+		return Double.toString(nanos / 1e9);
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
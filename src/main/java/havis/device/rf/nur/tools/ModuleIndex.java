@@ -0,0 +1,196 @@
+package havis.device.rf.nur.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Identifies modules by the USB vendor, product and serial number the kernel
+ * exports in /sys/class/tty/&lt;name&gt;/device, so no device has to be opened
+ * to find out what it is. The last known device of each serial number is
+ * kept in a persisted index, so a module is found without identifying all
+ * devices.
+ */
+public class ModuleIndex {
+
+	public static final String DEFAULT_SYS_ROOT = "/sys";
+	public static final String DEFAULT_VENDOR_ID = "04e6";
+
+	/**
+	 * The USB identity of a device
+	 */
+	public static class Module {
+		final String device;
+		final String vendorId;
+		final String productId;
+		final String serial;
+
+		Module(String device, String vendorId, String productId, String serial) {
+			this.device = device;
+			this.vendorId = vendorId;
+			this.productId = productId;
+			this.serial = serial;
+		}
+
+		@Override
+		public String toString() {
+			return device + " [" + vendorId + ":" + productId + ", serial=" + serial + "]";
+		}
+	}
+
+	private final Path sysRoot;
+	private final Path indexFile;
+	private final String vendorId;
+	private final Properties index = new Properties();
+
+	/**
+	 * Creates a new index
+	 *
+	 * @param sysRoot
+	 *            the sysfs mount point
+	 * @param indexFile
+	 *            the file the index is persisted to or null
+	 * @param vendorId
+	 *            the USB vendor ID of the modules
+	 */
+	public ModuleIndex(Path sysRoot, Path indexFile, String vendorId) {
+		this.sysRoot = sysRoot;
+		this.indexFile = indexFile;
+		this.vendorId = vendorId;
+		load();
+	}
+
+	/**
+	 * Reads the USB identity of a device from sysfs
+	 *
+	 * @param device
+	 *            the device, e.g. /dev/ttyACM0
+	 * @return the identity or null if the device is not an USB device
+	 */
+	public Module identify(String device) {
+		Path dir = sysRoot.resolve("class/tty").resolve(Paths.get(device).getFileName()).resolve("device");
+		if (!Files.isDirectory(dir))
+			return null;
+		try {
+			// the device link points to the USB interface, the identity is
+			// part of the USB device one level above
+			Path usb = dir.toRealPath();
+			if (!Files.exists(usb.resolve("idVendor")))
+				usb = usb.getParent();
+			String vendor = read(usb.resolve("idVendor"));
+			if (vendor == null)
+				return null;
+			return new Module(device, vendor, read(usb.resolve("idProduct")), read(usb.resolve("serial")));
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param device
+	 *            the device
+	 * @return false if sysfs identifies the device as USB device of another
+	 *         vendor, true otherwise
+	 */
+	public boolean isModule(String device) {
+		Module module = identify(device);
+		return module == null || vendorId.equalsIgnoreCase(module.vendorId);
+	}
+
+	/**
+	 * @param device
+	 *            the device
+	 * @param serial
+	 *            the serial number
+	 * @return whether the device is the module with the serial number
+	 */
+	public boolean matches(String device, String serial) {
+		Module module = identify(device);
+		return module != null && serial.equals(module.serial);
+	}
+
+	/**
+	 * Identifies the devices and updates the index
+	 *
+	 * @param devices
+	 *            the devices
+	 * @return the identified modules
+	 */
+	public List<Module> scan(List<String> devices) {
+		List<Module> modules = new ArrayList<>();
+		boolean changed = false;
+		for (String device : devices) {
+			Module module = identify(device);
+			if (module == null || !vendorId.equalsIgnoreCase(module.vendorId))
+				continue;
+			modules.add(module);
+			if (module.serial != null && !device.equals(index.getProperty(module.serial))) {
+				index.setProperty(module.serial, device);
+				changed = true;
+			}
+		}
+		if (changed)
+			store();
+		return modules;
+	}
+
+	/**
+	 * Records the device of a module, if it changed the index is stored
+	 *
+	 * @param serial
+	 *            the serial number
+	 * @param device
+	 *            the device
+	 */
+	public void update(String serial, String device) {
+		if (!device.equals(index.getProperty(serial))) {
+			index.setProperty(serial, device);
+			store();
+		}
+	}
+
+	/**
+	 * Looks up the last known device of a module
+	 *
+	 * @param serial
+	 *            the serial number
+	 * @return the device if it still belongs to the module, null otherwise
+	 */
+	public String lookup(String serial) {
+		String device = index.getProperty(serial);
+		return device != null && matches(device, serial) ? device : null;
+	}
+
+	private String read(Path path) throws IOException {
+		if (!Files.exists(path))
+			return null;
+		return new String(Files.readAllBytes(path), StandardCharsets.UTF_8).trim();
+	}
+
+	private void load() {
+		if (indexFile == null || !Files.exists(indexFile))
+			return;
+		try (InputStream stream = Files.newInputStream(indexFile)) {
+			index.load(stream);
+		} catch (IOException e) {
+			index.clear();
+		}
+	}
+
+	private void store() {
+		if (indexFile == null)
+			return;
+		try (OutputStream stream = Files.newOutputStream(indexFile)) {
+			index.store(stream, "NUR module serial number to device");
+		} catch (IOException e) {
+			// the index is only a cache
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package havis.device.rf.nur.tools;
+
+import com.nordicid.nativeserial.NativeSerialTransport;
+import com.nordicid.nativeserial.SerialPort;
+import com.nordicid.nurapi.NurApi;
+
+/**
+ * Creates the API of a module and changes the baud rate of its link. The
+ * modules are connected via serial transports, tests replace the factory.
+ */
+public interface NurApiFactory {
+
+	/**
+	 * Connects to modules via native serial transports
+	 */
+	NurApiFactory SERIAL = new NurApiFactory() {
+		@Override
+		public NurApi create(String device, int baudrate) {
+			return new NurApi(createTransport(device, baudrate));
+		}
+
+		@Override
+		public void setBaudrate(NurApi nurApi, String device, int baudrate) {
+			nurApi.setTransport(createTransport(device, baudrate));
+		}
+
+		private NativeSerialTransport createTransport(String device, int baudrate) {
+			return new NativeSerialTransport(new SerialPort(device, device, 0), baudrate);
+		}
+	};
+
+	/**
+	 * Creates an API which is not connected yet
+	 *
+	 * @param device
+	 *            the device
+	 * @param baudrate
+	 *            the baud rate of the host
+	 * @return the API
+	 * @throws Exception
+	 *             if the API could not be created
+	 */
+	NurApi create(String device, int baudrate) throws Exception;
+
+	/**
+	 * Reopens the link of a disconnected API with another baud rate
+	 *
+	 * @param nurApi
+	 *            the API
+	 * @param device
+	 *            the device
+	 * @param baudrate
+	 *            the baud rate of the host
+	 * @throws Exception
+	 *             if the link could not be reopened
+	 */
+	void setBaudrate(NurApi nurApi, String device, int baudrate) throws Exception;
+}
@@ -0,0 +1,45 @@
+package havis.device.rf.nur.tools;
+
+import com.nordicid.nurapi.NurApi;
+
+/**
+ * The serial link of a connected {@link NurApi}
+ */
+class NurApiLink implements BaudRateNegotiator.Link {
+
+	/* the baud rate settings of the module in order of their index */
+	static final int[] SETTINGS = new int[] { 115200, 230400, 500000, 1000000, 1500000, 38400, 9600 };
+
+	private final NurApi nurApi;
+	private final String device;
+	private final NurApiFactory factory;
+
+	NurApiLink(NurApi nurApi, String device, NurApiFactory factory) {
+		this.nurApi = nurApi;
+		this.device = device;
+		this.factory = factory;
+	}
+
+	@Override
+	public void setModuleBaudrate(int baudrate) throws Exception {
+		for (int i = 0; i < SETTINGS.length; i++) {
+			if (SETTINGS[i] == baudrate) {
+				nurApi.setBaudrate(i);
+				return;
+			}
+		}
+		throw new IllegalArgumentException("Unsupported baud rate " + baudrate);
+	}
+
+	@Override
+	public void setHostBaudrate(int baudrate) throws Exception {
+		nurApi.disconnect();
+		factory.setBaudrate(nurApi, device, baudrate);
+		nurApi.connect();
+	}
+
+	@Override
+	public void verify() throws Exception {
+		nurApi.getMode();
+	}
+}
@@ -0,0 +1,416 @@
+package havis.device.rf.nur.tools;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Renders the public fields of API objects as text lines or JSON. The
+ * accessors of a class are resolved once as method handles and cached, the
+ * output is written into a reused builder. Fields of API types are rendered
+ * recursively. A renderer is not thread-safe, the accessor cache is shared.
+ */
+class ObjectRenderer {
+
+	private static final String NESTED_PACKAGE = "com.nordicid";
+
+	private static final int OBJECT = 0;
+	private static final int NESTED = 1;
+	private static final int INT = 2;
+	private static final int LONG = 3;
+	private static final int BOOLEAN = 4;
+	private static final int DOUBLE = 5;
+	private static final int INT_ARRAY = 6;
+	private static final int BOOLEAN_ARRAY = 7;
+	private static final int BYTE_ARRAY = 8;
+	private static final int SHORT_ARRAY = 9;
+	private static final int DOUBLE_ARRAY = 10;
+	private static final int FLOAT_ARRAY = 11;
+	private static final int LONG_ARRAY = 12;
+	private static final int CHAR_ARRAY = 13;
+	private static final int OBJECT_ARRAY = 14;
+
+	/**
+	 * The cached accessor of a field
+	 */
+	private static class Accessor {
+		final String name;
+		final int kind;
+		final Class<?> type;
+		/* (Object) -> the field type for primitives, Object otherwise */
+		final MethodHandle getter;
+
+		Accessor(String name, int kind, Class<?> type, MethodHandle getter) {
+			this.name = name;
+			this.kind = kind;
+			this.type = type;
+			this.getter = getter;
+		}
+	}
+
+	private static final ClassValue<Accessor[]> ACCESSORS = new ClassValue<Accessor[]>() {
+		@Override
+		protected Accessor[] computeValue(Class<?> clazz) {
+			return resolve(clazz);
+		}
+	};
+
+	private final StringBuilder builder = new StringBuilder(256);
+
+	/**
+	 * Renders an object as one line per field in the form
+	 * <code>name: value</code>, fields of nested API objects are prefixed
+	 * with the field name of the object
+	 *
+	 * @param clazz
+	 *            the class whose fields are rendered
+	 * @param object
+	 *            the object
+	 * @param lines
+	 *            receives the lines
+	 */
+	void text(Class<?> clazz, Object object, Consumer<String> lines) {
+		builder.setLength(0);
+		text(clazz, object, lines, 0);
+	}
+
+	private void text(Class<?> clazz, Object object, Consumer<String> lines, int prefix) {
+		for (Accessor accessor : ACCESSORS.get(clazz)) {
+			builder.setLength(prefix);
+			builder.append(accessor.name);
+			try {
+				if (accessor.kind == NESTED) {
+					Object value = accessor.getter.invokeExact(object);
+					if (value != null) {
+						builder.append('.');
+						text(accessor.type, value, lines, builder.length());
+						continue;
+					}
+					builder.append(": null");
+				} else {
+					builder.append(": ");
+					appendValue(accessor, object, false);
+				}
+			} catch (Throwable t) {
+				builder.append(": <").append(t).append('>');
+			}
+			lines.accept(builder.toString());
+		}
+	}
+
+	/**
+	 * Renders an object as JSON
+	 *
+	 * @param clazz
+	 *            the class whose fields are rendered
+	 * @param object
+	 *            the object
+	 * @return the JSON object
+	 */
+	String json(Class<?> clazz, Object object) {
+		builder.setLength(0);
+		appendJson(clazz, object);
+		return builder.toString();
+	}
+
+	/**
+	 * Renders an array of objects as JSON
+	 *
+	 * @param clazz
+	 *            the class whose fields are rendered
+	 * @param objects
+	 *            the objects
+	 * @return the JSON array
+	 */
+	String json(Class<?> clazz, Object[] objects) {
+		builder.setLength(0);
+		appendJson(clazz, objects);
+		return builder.toString();
+	}
+
+	/**
+	 * Appends the object as JSON to the builder
+	 */
+	private void appendJson(Class<?> clazz, Object object) {
+		if (object == null) {
+			builder.append("null");
+			return;
+		}
+		if (object instanceof Object[]) {
+			Object[] array = (Object[]) object;
+			builder.append('[');
+			for (int i = 0; i < array.length; i++) {
+				if (i > 0)
+					builder.append(',');
+				appendJson(clazz, array[i]);
+			}
+			builder.append(']');
+			return;
+		}
+		builder.append('{');
+		boolean first = true;
+		for (Accessor accessor : ACCESSORS.get(clazz)) {
+			if (!first)
+				builder.append(',');
+			first = false;
+			appendString(accessor.name);
+			builder.append(':');
+			try {
+				if (accessor.kind == NESTED)
+					appendJson(accessor.type, (Object) accessor.getter.invokeExact(object));
+				else
+					appendValue(accessor, object, true);
+			} catch (Throwable t) {
+				builder.append("null");
+			}
+		}
+		builder.append('}');
+	}
+
+	private void appendValue(Accessor accessor, Object object, boolean json) throws Throwable {
+		switch (accessor.kind) {
+		case INT:
+			builder.append((int) accessor.getter.invokeExact(object));
+			return;
+		case LONG:
+			builder.append((long) accessor.getter.invokeExact(object));
+			return;
+		case BOOLEAN:
+			builder.append((boolean) accessor.getter.invokeExact(object));
+			return;
+		case DOUBLE:
+			appendNumber((double) accessor.getter.invokeExact(object), json);
+			return;
+		}
+		Object value = accessor.getter.invokeExact(object);
+		if (value == null) {
+			builder.append("null");
+			return;
+		}
+		switch (accessor.kind) {
+		case INT_ARRAY: {
+			int[] array = (int[]) value;
+			builder.append('[');
+			for (int i = 0; i < array.length; i++)
+				separate(i, json).append(array[i]);
+			builder.append(']');
+			break;
+		}
+		case BOOLEAN_ARRAY: {
+			boolean[] array = (boolean[]) value;
+			builder.append('[');
+			for (int i = 0; i < array.length; i++)
+				separate(i, json).append(array[i]);
+			builder.append(']');
+			break;
+		}
+		case BYTE_ARRAY: {
+			byte[] array = (byte[]) value;
+			builder.append('[');
+			for (int i = 0; i < array.length; i++)
+				separate(i, json).append(array[i]);
+			builder.append(']');
+			break;
+		}
+		case SHORT_ARRAY: {
+			short[] array = (short[]) value;
+			builder.append('[');
+			for (int i = 0; i < array.length; i++)
+				separate(i, json).append(array[i]);
+			builder.append(']');
+			break;
+		}
+		case DOUBLE_ARRAY: {
+			double[] array = (double[]) value;
+			builder.append('[');
+			for (int i = 0; i < array.length; i++) {
+				separate(i, json);
+				appendNumber(array[i], json);
+			}
+			builder.append(']');
+			break;
+		}
+		case FLOAT_ARRAY: {
+			float[] array = (float[]) value;
+			builder.append('[');
+			for (int i = 0; i < array.length; i++) {
+				separate(i, json);
+				appendNumber(array[i], json);
+			}
+			builder.append(']');
+			break;
+		}
+		case LONG_ARRAY: {
+			long[] array = (long[]) value;
+			builder.append('[');
+			for (int i = 0; i < array.length; i++)
+				separate(i, json).append(array[i]);
+			builder.append(']');
+			break;
+		}
+		case CHAR_ARRAY: {
+			char[] array = (char[]) value;
+			builder.append('[');
+			for (int i = 0; i < array.length; i++) {
+				separate(i, json);
+				if (json)
+					appendString(String.valueOf(array[i]));
+				else
+					builder.append(array[i]);
+			}
+			builder.append(']');
+			break;
+		}
+		case OBJECT_ARRAY: {
+			Object[] array = (Object[]) value;
+			builder.append('[');
+			for (int i = 0; i < array.length; i++) {
+				separate(i, json);
+				if (json && array[i] != null && array[i].getClass().getName().startsWith(NESTED_PACKAGE))
+					appendJson(array[i].getClass(), array[i]);
+				else
+					appendObject(array[i], json);
+			}
+			builder.append(']');
+			break;
+		}
+		default:
+			appendObject(value, json);
+		}
+	}
+
+	/**
+	 * Appends the separator of array elements, ", " like
+	 * {@link java.util.Arrays#toString(int[])} or "," for JSON
+	 */
+	private StringBuilder separate(int index, boolean json) {
+		if (index > 0)
+			builder.append(json ? "," : ", ");
+		return builder;
+	}
+
+	private void appendNumber(double value, boolean json) {
+		if (json && (Double.isNaN(value) || Double.isInfinite(value)))
+			builder.append("null");
+		else
+			builder.append(value);
+	}
+
+	private void appendNumber(float value, boolean json) {
+		if (json && (Float.isNaN(value) || Float.isInfinite(value)))
+			builder.append("null");
+		else
+			builder.append(value);
+	}
+
+	private void appendObject(Object value, boolean json) {
+		if (!json)
+			builder.append(value);
+		else if (value == null)
+			builder.append("null");
+		else if (value instanceof Boolean || value instanceof Integer || value instanceof Long
+				|| value instanceof Short || value instanceof Byte)
+			builder.append(value);
+		else if (value instanceof Number)
+			appendNumber(((Number) value).doubleValue(), true);
+		else
+			appendString(value.toString());
+	}
+
+	private void appendString(String text) {
+		builder.append('"');
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '"':
+				builder.append("\\\"");
+				break;
+			case '\\':
+				builder.append("\\\\");
+				break;
+			case '\n':
+				builder.append("\\n");
+				break;
+			case '\r':
+				builder.append("\\r");
+				break;
+			case '\t':
+				builder.append("\\t");
+				break;
+			default:
+				if (c < 0x20)
+					builder.append(String.format("\\u%04x", (int) c));
+				else
+					builder.append(c);
+			}
+		}
+		builder.append('"');
+	}
+
+	/**
+	 * Resolves the accessors of the public fields of a class except
+	 * constants
+	 */
+	private static Accessor[] resolve(Class<?> clazz) {
+		MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+		List<Accessor> accessors = new ArrayList<>();
+		for (Field field : clazz.getFields()) {
+			int modifiers = field.getModifiers();
+			if (Modifier.isStatic(modifiers) && Modifier.isFinal(modifiers))
+				continue;
+			Class<?> type = field.getType();
+			int kind = kindOf(type);
+			MethodHandle getter;
+			try {
+				getter = lookup.unreflectGetter(field);
+			} catch (IllegalAccessException e) {
+				continue;
+			}
+			if (Modifier.isStatic(modifiers))
+				getter = MethodHandles.dropArguments(getter, 0, Object.class);
+			Class<?> returnType = kind == INT ? int.class
+					: kind == LONG ? long.class
+							: kind == BOOLEAN ? boolean.class : kind == DOUBLE ? double.class : Object.class;
+			getter = getter.asType(MethodType.methodType(returnType, Object.class));
+			accessors.add(new Accessor(field.getName(), kind, type, getter));
+		}
+		return accessors.toArray(new Accessor[accessors.size()]);
+	}
+
+	private static int kindOf(Class<?> type) {
+		if (type.getName().startsWith(NESTED_PACKAGE))
+			return NESTED;
+		if (type == int.class)
+			return INT;
+		if (type == long.class)
+			return LONG;
+		if (type == boolean.class)
+			return BOOLEAN;
+		if (type == double.class)
+			return DOUBLE;
+		if (type == int[].class)
+			return INT_ARRAY;
+		if (type == boolean[].class)
+			return BOOLEAN_ARRAY;
+		if (type == byte[].class)
+			return BYTE_ARRAY;
+		if (type == short[].class)
+			return SHORT_ARRAY;
+		if (type == double[].class)
+			return DOUBLE_ARRAY;
+		if (type == float[].class)
+			return FLOAT_ARRAY;
+		if (type == long[].class)
+			return LONG_ARRAY;
+		if (type == char[].class)
+			return CHAR_ARRAY;
+		if (type.isArray())
+			return OBJECT_ARRAY;
+		return OBJECT;
+	}
+}
@@ -0,0 +1,176 @@
+package havis.device.rf.nur.tools;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.nordicid.nurapi.NurEventProgrammingProgress;
+
+/**
+ * Tracks programming an image from the progress events of the module. The
+ * time between the events is recorded as page latency. Throughput, page
+ * latency distribution and the estimated remaining time are reported at
+ * most once per interval, on errors and for the last page. A watchdog
+ * reports a stalled module if no page was programmed for an interval.
+ */
+class ProgrammingProgress {
+
+	private final String device;
+	private final long bytes;
+	private final long interval;
+	private final boolean json;
+	private final Metrics.Histogram shared;
+	private final Consumer<String> output;
+	private final Metrics.Histogram pages = new Metrics.Histogram();
+
+	private long start;
+	private long lastPage;
+	private long lastReport;
+	private int page = -1;
+	private int totalPages;
+	private boolean finished;
+	private Thread watchdog;
+
+	/**
+	 * Creates a new progress
+	 *
+	 * @param device
+	 *            the device of the module
+	 * @param bytes
+	 *            the size of the image
+	 * @param interval
+	 *            the minimum time between reports in milliseconds
+	 * @param json
+	 *            whether to report JSON lines
+	 * @param shared
+	 *            records the page latencies of all modules or null
+	 * @param output
+	 *            receives the reports
+	 */
+	ProgrammingProgress(String device, long bytes, long interval, boolean json, Metrics.Histogram shared,
+			Consumer<String> output) {
+		this.device = device;
+		this.bytes = bytes;
+		this.interval = TimeUnit.MILLISECONDS.toNanos(interval);
+		this.json = json;
+		this.shared = shared;
+		this.output = output;
+	}
+
+	/**
+	 * Starts the watchdog
+	 */
+	synchronized void start() {
+		start = lastPage = lastReport = System.nanoTime();
+		watchdog = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch();
+			}
+		}, "programming-watchdog");
+		watchdog.setDaemon(true);
+		watchdog.start();
+	}
+
+	/**
+	 * Stops the watchdog
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the watchdog
+	 */
+	void stop() throws InterruptedException {
+		Thread thread;
+		synchronized (this) {
+			finished = true;
+			thread = watchdog;
+		}
+		if (thread != null) {
+			thread.interrupt();
+			thread.join();
+		}
+	}
+
+	/**
+	 * Records a programmed page, called by the listener thread
+	 *
+	 * @param event
+	 *            the event
+	 */
+	synchronized void update(NurEventProgrammingProgress event) {
+		long now = System.nanoTime();
+		long latency = now - lastPage;
+		pages.record(latency);
+		if (shared != null)
+			shared.record(latency);
+		lastPage = now;
+		page = event.currentPage;
+		totalPages = event.totalPages;
+		if (event.error != 0) {
+			report(now, "failed", event.error);
+		} else if (page + 1 >= totalPages) {
+			finished = true;
+			report(now, "done", 0);
+		} else if (now - lastReport >= interval)
+			report(now, "progress", 0);
+	}
+
+	private void watch() {
+		long millis = TimeUnit.NANOSECONDS.toMillis(interval);
+		while (true) {
+			try {
+				Thread.sleep(millis);
+			} catch (InterruptedException e) {
+				return;
+			}
+			synchronized (this) {
+				if (finished)
+					return;
+				long now = System.nanoTime();
+				if (now - lastPage >= interval && now - lastReport >= interval)
+					report(now, "stalled", 0);
+			}
+		}
+	}
+
+	private void report(long now, String state, int error) {
+		lastReport = now;
+		int done = page + 1;
+		double seconds = (now - start) / 1e9;
+		double pagesPerSecond = seconds > 0 ? done / seconds : 0;
+		double bytesPerSecond = totalPages > 0 ? pagesPerSecond * bytes / totalPages : 0;
+		long eta = pagesPerSecond > 0 ? Math.round((totalPages - done) / pagesPerSecond) : -1;
+		double percent = totalPages > 0 ? 100.0 * done / totalPages : 0;
+		double p50 = pages.getQuantile(0.5) / 1e6;
+		double p99 = pages.getQuantile(0.99) / 1e6;
+		double max = pages.getMax() / 1e6;
+		double idle = (now - lastPage) / 1e9;
+		if (json) {
+			output.accept(String.format(Locale.ROOT,
+					"{\"device\":\"%s\",\"state\":\"%s\",\"page\":%d,\"totalPages\":%d,\"percent\":%.1f,"
+							+ "\"pagesPerSecond\":%.2f,\"bytesPerSecond\":%.0f,\"pageP50Ms\":%.1f,\"pageP99Ms\":%.1f,"
+							+ "\"pageMaxMs\":%.1f,\"etaSeconds\":%d,\"idleSeconds\":%.1f,\"error\":%d}",
+					device.replace("\\", "\\\\").replace("\"", "\\\""), state, done, totalPages, percent,
+					pagesPerSecond, bytesPerSecond, p50, p99, max, eta, idle, error));
+			return;
+		}
+		String rates = String.format(Locale.ROOT,
+				"%.1f pages/s, %.1f kB/s, page latency p50 %.0f ms, p99 %.0f ms, max %.0f ms", pagesPerSecond,
+				bytesPerSecond / 1000, p50, p99, max);
+		switch (state) {
+		case "failed":
+			output.accept(String.format(Locale.ROOT, "Programming failed at page %d/%d with error %d, %s", done,
+					totalPages, error, rates));
+			break;
+		case "stalled":
+			output.accept(String.format(Locale.ROOT, "No page programmed for %.1f s after page %d/%d, %s", idle, done,
+					totalPages, rates));
+			break;
+		case "done":
+			output.accept(String.format(Locale.ROOT, "Programmed %d pages in %.1f s, %s", totalPages, seconds, rates));
+			break;
+		default:
+			output.accept(String.format(Locale.ROOT, "Programmed %d/%d pages (%.0f%%), %s, ETA %d s", done, totalPages,
+					percent, rates, eta));
+		}
+	}
+}
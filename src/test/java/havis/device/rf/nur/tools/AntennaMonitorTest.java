@@ -0,0 +1,86 @@
+package havis.device.rf.nur.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class AntennaMonitorTest {
+
+	private final List<String> events = new ArrayList<>();
+	private final AntennaMonitor.Listener listener = new AntennaMonitor.Listener() {
+		@Override
+		public void stateChanged(int antennaId, String state, double db) {
+			events.add(antennaId + " " + state);
+		}
+
+		@Override
+		public void drifted(int antennaId, double baseline, double mean) {
+			events.add(antennaId + " drifted " + baseline + " " + mean);
+		}
+	};
+
+	@Test
+	public void hysteresis() {
+		AntennaMonitor monitor = new AntennaMonitor(new int[] { 1 }, 10, -10, 1, 0, listener);
+		// noise around the threshold keeps the first state
+		for (double db : new double[] { -10.5, -9.5, -10.8, -9.1, -10.9 })
+			monitor.add(0, db);
+		assertEquals(1, events.size());
+		assertEquals("1 CONNECTED", events.get(0));
+
+		monitor.add(0, -8.9);
+		monitor.add(0, -9.5);
+		monitor.add(0, -10.5);
+		monitor.add(0, -11.5);
+		assertEquals(3, events.size());
+		assertEquals("1 DISCONNECTED", events.get(1));
+		assertEquals("1 CONNECTED", events.get(2));
+	}
+
+	@Test
+	public void withoutMargin() {
+		AntennaMonitor monitor = new AntennaMonitor(new int[] { 1 }, 10, -10, 0, 0, listener);
+		for (double db : new double[] { -10.5, -9.5, -10.5 })
+			monitor.add(0, db);
+		assertEquals(3, events.size());
+	}
+
+	@Test
+	public void antennasAreIndependent() {
+		AntennaMonitor monitor = new AntennaMonitor(new int[] { 1, 3 }, 4, -10, 1, 0, listener);
+		monitor.add(0, -20);
+		monitor.add(1, 0);
+		monitor.add(1, -20);
+		assertEquals(3, events.size());
+		assertEquals("1 CONNECTED", events.get(0));
+		assertEquals("3 DISCONNECTED", events.get(1));
+		assertEquals("3 CONNECTED", events.get(2));
+	}
+
+	@Test
+	public void drift() {
+		AntennaMonitor monitor = new AntennaMonitor(new int[] { 2 }, 2, -10, 1, 3, listener);
+		monitor.add(0, -20);
+		monitor.add(0, -20);
+		monitor.add(0, -18);
+		assertEquals(1, events.size());
+		monitor.add(0, -14);
+		assertEquals(2, events.size());
+		assertEquals("2 drifted -20.0 -16.0", events.get(1));
+	}
+
+	@Test
+	public void snapshot() {
+		AntennaMonitor monitor = new AntennaMonitor(new int[] { 1, 2 }, 3, -10, 1, 0, listener);
+		for (double db : new double[] { -12, -14, -16, -18 })
+			monitor.add(0, db);
+		String[] lines = monitor.snapshot();
+		assertEquals("Antenna 1: CONNECTED, last=-18.00, min=-18.00, mean=-16.00, max=-14.00 dB over 3 of 4 readings",
+				lines[0]);
+		assertTrue(lines[1], lines[1].endsWith("no readings"));
+	}
+}
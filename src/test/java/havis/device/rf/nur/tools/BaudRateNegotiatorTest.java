@@ -0,0 +1,155 @@
+package havis.device.rf.nur.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+public class BaudRateNegotiatorTest {
+
+	/**
+	 * A serial link, a command only reaches the module if both sides use
+	 * the same rate. At unreliable rates short commands pass, but the
+	 * verification fails.
+	 */
+	private static class SimulatedLink implements BaudRateNegotiator.Link {
+
+		final Set<Integer> moduleRates = new HashSet<>();
+		final Set<Integer> hostRates = new HashSet<>();
+		/* the rates at which the cable transfers data without errors */
+		final Set<Integer> reliableRates = new HashSet<>();
+		/* the module switches, but its answer is lost */
+		boolean loseAnswer;
+		int moduleRate = BaudRateNegotiator.DEFAULT_BAUDRATE;
+		int hostRate = BaudRateNegotiator.DEFAULT_BAUDRATE;
+
+		SimulatedLink(Integer... rates) {
+			moduleRates.add(BaudRateNegotiator.DEFAULT_BAUDRATE);
+			moduleRates.addAll(Arrays.asList(rates));
+			hostRates.addAll(moduleRates);
+			reliableRates.addAll(moduleRates);
+		}
+
+		@Override
+		public void setModuleBaudrate(int baudrate) throws Exception {
+			if (moduleRate != hostRate)
+				throw new Exception("Timeout");
+			if (!moduleRates.contains(baudrate))
+				throw new Exception("Module does not support " + baudrate);
+			moduleRate = baudrate;
+			if (loseAnswer)
+				throw new Exception("Timeout");
+		}
+
+		@Override
+		public void setHostBaudrate(int baudrate) throws Exception {
+			if (!hostRates.contains(baudrate))
+				throw new Exception("Host does not support " + baudrate);
+			hostRate = baudrate;
+		}
+
+		@Override
+		public void verify() throws Exception {
+			if (moduleRate != hostRate || !reliableRates.contains(hostRate))
+				throw new Exception("Timeout");
+		}
+	}
+
+	private final List<String> log = new ArrayList<>();
+	private final Consumer<String> logger = new Consumer<String>() {
+		@Override
+		public void accept(String message) {
+			log.add(message);
+		}
+	};
+
+	@Test
+	public void negotiateHighestRate() throws Exception {
+		SimulatedLink link = new SimulatedLink(1500000, 1000000, 500000, 230400);
+		BaudRateNegotiator negotiator = new BaudRateNegotiator(link, logger);
+		assertEquals(1500000, negotiator.negotiate());
+		assertEquals(1500000, negotiator.getBaudrate());
+		assertEquals(1500000, link.moduleRate);
+		assertEquals(1500000, link.hostRate);
+
+		negotiator.restore();
+		assertEquals(BaudRateNegotiator.DEFAULT_BAUDRATE, negotiator.getBaudrate());
+		assertEquals(BaudRateNegotiator.DEFAULT_BAUDRATE, link.moduleRate);
+		assertEquals(BaudRateNegotiator.DEFAULT_BAUDRATE, link.hostRate);
+	}
+
+	@Test
+	public void negotiateRateSupportedByModule() throws Exception {
+		SimulatedLink link = new SimulatedLink(500000, 230400);
+		link.hostRates.add(1500000);
+		BaudRateNegotiator negotiator = new BaudRateNegotiator(link, logger);
+		assertEquals(500000, negotiator.negotiate());
+		assertEquals(500000, link.moduleRate);
+		assertEquals(500000, link.hostRate);
+	}
+
+	@Test
+	public void fallBackFromUnreliableRate() throws Exception {
+		SimulatedLink link = new SimulatedLink(1500000, 1000000);
+		link.reliableRates.remove(1500000);
+		BaudRateNegotiator negotiator = new BaudRateNegotiator(link, logger);
+		// both sides switch to 1500000 but the module does not answer
+		assertEquals(1000000, negotiator.negotiate());
+		assertEquals(1000000, link.moduleRate);
+		assertEquals(1000000, link.hostRate);
+	}
+
+	@Test
+	public void keepDefaultRate() throws Exception {
+		SimulatedLink link = new SimulatedLink(1500000, 1000000, 500000, 230400);
+		link.reliableRates.retainAll(Arrays.asList(BaudRateNegotiator.DEFAULT_BAUDRATE));
+		BaudRateNegotiator negotiator = new BaudRateNegotiator(link, logger);
+		assertEquals(BaudRateNegotiator.DEFAULT_BAUDRATE, negotiator.negotiate());
+		assertEquals(BaudRateNegotiator.DEFAULT_BAUDRATE, link.moduleRate);
+		assertEquals(BaudRateNegotiator.DEFAULT_BAUDRATE, link.hostRate);
+		assertEquals(BaudRateNegotiator.BAUDRATES.length, log.size());
+
+		// nothing to restore
+		negotiator.restore();
+		assertEquals(BaudRateNegotiator.BAUDRATES.length, log.size());
+	}
+
+	@Test
+	public void restoreAfterLostAnswer() throws Exception {
+		SimulatedLink link = new SimulatedLink(1500000);
+		BaudRateNegotiator negotiator = new BaudRateNegotiator(link, logger);
+		negotiator.negotiate();
+		link.loseAnswer = true;
+		negotiator.restore();
+		assertEquals(BaudRateNegotiator.DEFAULT_BAUDRATE, negotiator.getBaudrate());
+		assertEquals(BaudRateNegotiator.DEFAULT_BAUDRATE, link.moduleRate);
+		assertEquals(BaudRateNegotiator.DEFAULT_BAUDRATE, link.hostRate);
+	}
+
+	@Test
+	public void lostLink() throws Exception {
+		SimulatedLink link = new SimulatedLink(1500000);
+		link.reliableRates.remove(1500000);
+		link.reliableRates.remove(BaudRateNegotiator.DEFAULT_BAUDRATE);
+		BaudRateNegotiator negotiator = new BaudRateNegotiator(link, logger);
+		try {
+			negotiator.negotiate();
+			fail("Expected lost link");
+		} catch (Exception e) {
+			assertEquals("Lost link to module while switching baud rate", e.getMessage());
+		}
+	}
+
+	@Test
+	public void estimateTransferTime() {
+		assertEquals(1000, BaudRateNegotiator.estimateTransferTime(11520, 115200));
+		assertEquals(100, BaudRateNegotiator.estimateTransferTime(15000, 1500000));
+	}
+}
@@ -0,0 +1,46 @@
+package havis.device.rf.nur.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Test;
+
+public class ConfigSnapshotTest {
+
+	private static ConfigSnapshot snapshot(String... settings) {
+		Properties properties = new Properties();
+		for (int i = 0; i < settings.length; i += 2)
+			properties.setProperty(settings[i], settings[i + 1]);
+		return ConfigSnapshot.of(properties);
+	}
+
+	@Test
+	public void sameNumbersInOtherNotation() {
+		ConfigSnapshot current = snapshot("setup.txLevel", "16", "gpio.0.type", "1", "gpio.0.enabled", "false");
+		assertTrue(current.diff(snapshot("setup.txLevel", "0x10", "gpio.0.type", "0x1")).isEmpty());
+	}
+
+	@Test
+	public void differentValues() {
+		ConfigSnapshot current = snapshot("setup.txLevel", "16", "gpio.0.enabled", "false");
+		List<ConfigSnapshot.Change> changes = current
+				.diff(snapshot("setup.txLevel", "17", "gpio.0.enabled", "true"));
+		assertEquals(2, changes.size());
+		assertEquals("setup.txLevel: 16 -> 17", changes.get(1).toString());
+	}
+
+	@Test
+	public void integerIsNotDouble() {
+		// an int field does not accept a fraction, so the value differs
+		ConfigSnapshot current = snapshot("setup.txLevel", "1");
+		assertEquals(1, current.diff(snapshot("setup.txLevel", "1.0")).size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownSetting() {
+		snapshot("setup.txLevel", "1").diff(snapshot("irConfig.IsRunning", "true"));
+	}
+}
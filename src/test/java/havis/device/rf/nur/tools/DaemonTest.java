@@ -0,0 +1,122 @@
+package havis.device.rf.nur.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DaemonTest {
+
+	private Path dir;
+	private Path tokenFile;
+	private int port;
+	private Daemon daemon;
+	private Thread thread;
+
+	@Before
+	public void start() throws Exception {
+		dir = Files.createTempDirectory("daemon");
+		tokenFile = dir.resolve("token");
+		try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			port = socket.getLocalPort();
+		}
+		daemon = new Daemon(port, tokenFile, new Daemon.Handler() {
+			@Override
+			public int handle(String[] args, Consumer<String> output) throws CommandException {
+				output.accept(String.join(" ", args));
+				return 0;
+			}
+		}, new Consumer<String>() {
+			@Override
+			public void accept(String line) {
+			}
+		});
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					daemon.run();
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		});
+		thread.start();
+		// the token is written after the port is bound
+		for (int i = 0; i < 500 && !Files.exists(tokenFile); i++)
+			Thread.sleep(10);
+		assertTrue(Files.exists(tokenFile));
+	}
+
+	@After
+	public void stop() throws Exception {
+		daemon.shutdown();
+		thread.join(5000);
+		TestFiles.delete(dir);
+	}
+
+	private String request(String... lines) throws IOException {
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			socket.setSoTimeout(5000);
+			Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+			for (String line : lines)
+				writer.write(line + "\n");
+			writer.flush();
+			socket.shutdownOutput();
+			BufferedReader reader = new BufferedReader(
+					new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			StringBuilder response = new StringBuilder();
+			String line;
+			while ((line = reader.readLine()) != null)
+				response.append(line).append('\n');
+			return response.toString();
+		}
+	}
+
+	private String token() throws IOException {
+		return new String(Files.readAllBytes(tokenFile), StandardCharsets.US_ASCII).trim();
+	}
+
+	@Test
+	public void tokenOnlyReadableByOwner() throws Exception {
+		assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(tokenFile)));
+		assertEquals(32, token().length());
+	}
+
+	@Test
+	public void authorized() throws Exception {
+		assertEquals("= 0\n- -c -J\n= 0\n= 0\n", request("auth " + token(), "-c -J", "ping"));
+	}
+
+	@Test
+	public void rejectWithoutToken() throws Exception {
+		assertEquals("= " + Main.ERR_CODE_ILLEGAL_ARG + " Not authorized\n", request("-c", "ping"));
+		assertEquals("= " + Main.ERR_CODE_ILLEGAL_ARG + " Not authorized\n", request("auth 1234", "-c"));
+		assertEquals("= " + Main.ERR_CODE_ILLEGAL_ARG + " Not authorized\n", request("auth"));
+	}
+
+	@Test
+	public void deleteTokenOnShutdown() throws Exception {
+		assertEquals("= 0\n= 0\n", request("auth " + token(), "shutdown"));
+		thread.join(5000);
+		assertFalse(thread.isAlive());
+		assertFalse(Files.exists(tokenFile));
+	}
+}
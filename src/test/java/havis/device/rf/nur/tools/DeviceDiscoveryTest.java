@@ -0,0 +1,103 @@
+package havis.device.rf.nur.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeviceDiscoveryTest {
+
+	private Path dev;
+	private String prefix;
+
+	@Before
+	public void setUp() throws IOException {
+		dev = Files.createTempDirectory("dev");
+		prefix = dev.resolve("ttyACM").toString();
+		for (String name : new String[] { "ttyACM10", "ttyACM2", "ttyACM0", "ttyACMX", "ttyS0" })
+			Files.createFile(dev.resolve(name));
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		TestFiles.delete(dev);
+	}
+
+	private static Supplier<String> supplier(final String device) {
+		return new Supplier<String>() {
+			@Override
+			public String get() {
+				return device;
+			}
+		};
+	}
+
+	@Test
+	public void findAll() {
+		DeviceDiscovery discovery = new DeviceDiscovery(prefix);
+		assertEquals(Arrays.asList(prefix + "0", prefix + "2", prefix + "10"), discovery.findAll());
+		assertEquals(prefix + "0", discovery.find());
+	}
+
+	@Test
+	public void filter() {
+		DeviceDiscovery discovery = new DeviceDiscovery(prefix).filter(new Predicate<String>() {
+			@Override
+			public boolean test(String device) {
+				return !device.endsWith("0");
+			}
+		});
+		assertEquals(Arrays.asList(prefix + "2"), discovery.findAll());
+	}
+
+	@Test
+	public void hint() throws InterruptedException {
+		DeviceDiscovery discovery = new DeviceDiscovery(prefix).hint(supplier(prefix + "10"));
+		assertEquals(prefix + "10", discovery.find());
+		assertEquals(prefix + "10", discovery.await(0, TimeUnit.MILLISECONDS));
+		// the hint is kept by filters, but must pass them
+		assertEquals(prefix + "0", discovery.filter(new Predicate<String>() {
+			@Override
+			public boolean test(String device) {
+				return !device.endsWith("10");
+			}
+		}).find());
+	}
+
+	@Test
+	public void staleHint() {
+		assertEquals(prefix + "0", new DeviceDiscovery(prefix).hint(supplier(prefix + "5")).find());
+		assertEquals(prefix + "0", new DeviceDiscovery(prefix).hint(supplier(null)).find());
+		assertEquals(prefix + "0", new DeviceDiscovery(prefix).hint(supplier(dev.resolve("ttyS0").toString())).find());
+	}
+
+	@Test
+	public void awaitCreatedDevice() throws Exception {
+		final DeviceDiscovery discovery = new DeviceDiscovery(dev.resolve("ttyUSB").toString());
+		assertNull(discovery.await(0, TimeUnit.MILLISECONDS));
+		Thread creator = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+					Files.createFile(dev.resolve("ttyUSB3"));
+				} catch (Exception e) {
+					// fails the test below
+				}
+			}
+		});
+		creator.start();
+		assertEquals(dev.resolve("ttyUSB3").toString(), discovery.await(10, TimeUnit.SECONDS));
+		creator.join();
+	}
+}
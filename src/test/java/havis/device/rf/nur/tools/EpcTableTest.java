@@ -0,0 +1,199 @@
+package havis.device.rf.nur.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class EpcTableTest {
+
+	private static byte[] epc(int length, int value) {
+		byte[] epc = new byte[length];
+		for (int i = 0; i < Math.min(4, length); i++)
+			epc[length - 1 - i] = (byte) (value >>> (i * 8));
+		return epc;
+	}
+
+	private static Map<String, Long> contents(EpcTable table) {
+		Map<String, Long> contents = new HashMap<>();
+		byte[] target = new byte[InventoryStream.MAX_EPC_LENGTH];
+		for (int slot = 0; slot < table.slots(); slot++) {
+			if (table.isUsed(slot)) {
+				int length = table.getEpc(slot, target);
+				contents.put(Arrays.toString(Arrays.copyOf(target, length)), table.getLastSeen(slot));
+			}
+		}
+		return contents;
+	}
+
+	/**
+	 * @return EPCs of the length which hash to the slot of a table with the
+	 *         number of slots
+	 */
+	private static List<byte[]> collisions(int length, int slots, int slot, int count) {
+		List<byte[]> epcs = new ArrayList<>();
+		for (int value = 0; epcs.size() < count; value++) {
+			EpcTable table = new EpcTable(slots / 2, 62);
+			byte[] epc = epc(length, value);
+			table.add(epc, 0, 0, 1);
+			if (table.isUsed(slot))
+				epcs.add(epc);
+		}
+		return epcs;
+	}
+
+	@Test
+	public void addAndUpdate() {
+		EpcTable table = new EpcTable(16, 62);
+		assertTrue(table.add(epc(12, 1), 100, -70, 1));
+		assertFalse(table.add(epc(12, 1), 200, -60, 2));
+		assertFalse(table.add(epc(12, 1), 300, -65, 3));
+		assertEquals(1, table.size());
+		for (int slot = 0; slot < table.slots(); slot++) {
+			if (table.isUsed(slot)) {
+				assertEquals(100, table.getFirstSeen(slot));
+				assertEquals(300, table.getLastSeen(slot));
+				assertEquals(3, table.getCount(slot));
+				assertEquals(-60, table.getMaxRssi(slot));
+				assertEquals(2, table.getAntenna(slot));
+			}
+		}
+	}
+
+	@Test
+	public void epcLengths() {
+		EpcTable table = new EpcTable(16, 62);
+		byte[] target = new byte[62];
+		for (int length : new int[] { 2, 12, 16, 17, 32, 62 }) {
+			byte[] epc = epc(length, length);
+			epc[0] = (byte) 0xE2;
+			assertTrue(table.add(epc, 0, 0, 1));
+			assertFalse(table.add(epc.clone(), 0, 0, 1));
+		}
+		// same prefix, different length
+		assertTrue(table.add(epc(14, 12), 0, 0, 1));
+		assertEquals(7, table.size());
+		assertFalse(table.add(new byte[0], 0, 0, 1));
+		assertFalse(table.add(new byte[63], 0, 0, 1));
+		assertEquals(2, table.getDropped());
+
+		byte[] expected = epc(62, 62);
+		expected[0] = (byte) 0xE2;
+		for (int slot = 0; slot < table.slots(); slot++) {
+			if (table.isUsed(slot) && table.getEpc(slot, target) == 62)
+				assertArrayEquals(expected, Arrays.copyOf(target, 62));
+		}
+	}
+
+	@Test
+	public void dropWhenFull() {
+		EpcTable table = new EpcTable(3, 62);
+		for (int i = 0; i < 5; i++)
+			table.add(epc(12, i), 0, 0, 1);
+		assertEquals(3, table.size());
+		assertEquals(2, table.getDropped());
+		// known EPCs are still updated
+		assertFalse(table.add(epc(12, 0), 1, 0, 1));
+		assertEquals(2, table.getDropped());
+	}
+
+	@Test
+	public void grow() {
+		EpcTable table = new EpcTable(65536, 62);
+		assertEquals(1024, table.slots());
+		for (int i = 0; i < 10000; i++)
+			assertTrue(table.add(epc(i % 2 == 0 ? 12 : 20, i), i, 0, 1));
+		assertEquals(32768, table.slots());
+		assertEquals(10000, table.size());
+		for (int i = 0; i < 10000; i++)
+			assertFalse(table.add(epc(i % 2 == 0 ? 12 : 20, i), i, 0, 1));
+		Map<String, Long> contents = contents(table);
+		assertEquals(10000, contents.size());
+		assertEquals(Long.valueOf(17), contents.get(Arrays.toString(epc(20, 17))));
+	}
+
+	@Test
+	public void expireAcrossWrapAround() {
+		// a probe sequence of the last slot continues at the first slots
+		for (int length : new int[] { 12, 20 }) {
+			List<byte[]> last = collisions(length, 16, 15, 4);
+			List<byte[]> first = collisions(length, 16, 0, 2);
+			EpcTable table = new EpcTable(8, 62);
+			table.add(last.get(0), 0, 0, 1);
+			table.add(last.get(1), 10, 0, 1);
+			table.add(last.get(2), 0, 0, 1);
+			table.add(first.get(0), 10, 0, 1);
+			table.add(last.get(3), 10, 0, 1);
+			table.add(first.get(1), 0, 0, 1);
+			assertEquals(6, table.size());
+
+			assertEquals(3, table.expire(10, 5));
+			Map<String, Long> contents = contents(table);
+			assertEquals(3, table.size());
+			assertEquals(3, contents.size());
+			assertTrue(contents.containsKey(Arrays.toString(last.get(1))));
+			assertTrue(contents.containsKey(Arrays.toString(last.get(3))));
+			assertTrue(contents.containsKey(Arrays.toString(first.get(0))));
+			// all remaining EPCs are still found
+			assertFalse(table.add(last.get(1), 11, 0, 1));
+			assertFalse(table.add(last.get(3), 11, 0, 1));
+			assertFalse(table.add(first.get(0), 11, 0, 1));
+			assertEquals(3, table.size());
+		}
+	}
+
+	@Test
+	public void randomOperations() {
+		Random random = new Random(42);
+		EpcTable table = new EpcTable(32, 62);
+		Map<String, Long> model = new HashMap<>();
+		for (long time = 0; time < 20000; time++) {
+			int value = random.nextInt(48);
+			byte[] epc = epc(value % 3 == 0 ? 24 : 12, value);
+			String key = Arrays.toString(epc);
+			boolean known = model.containsKey(key);
+			boolean added = table.add(epc, time, 0, 1);
+			if (known) {
+				assertFalse(added);
+				model.put(key, time);
+			} else if (model.size() < 32) {
+				assertTrue(added);
+				model.put(key, time);
+			} else
+				assertFalse(added);
+			if (random.nextInt(10) == 0) {
+				long window = random.nextInt(60);
+				int expired = 0;
+				for (Map.Entry<String, Long> entry : new ArrayList<>(model.entrySet())) {
+					if (entry.getValue() < time - window) {
+						model.remove(entry.getKey());
+						expired++;
+					}
+				}
+				assertEquals(expired, table.expire(time, window));
+			}
+			assertEquals(model.size(), table.size());
+		}
+		assertEquals(model, contents(table));
+	}
+
+	@Test
+	public void clear() {
+		EpcTable table = new EpcTable(8, 62);
+		table.add(epc(12, 1), 0, 0, 1);
+		table.add(epc(30, 2), 0, 0, 1);
+		table.clear();
+		assertEquals(0, table.size());
+		assertTrue(table.add(epc(30, 2), 0, 0, 1));
+		assertEquals(1, table.size());
+	}
+}
@@ -0,0 +1,123 @@
+package havis.device.rf.nur.tools;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FirmwareCacheTest {
+
+	/**
+	 * Returns the content of the image as version and counts the calls
+	 */
+	private static class CountingParser implements FirmwareCache.Parser {
+
+		int count;
+
+		@Override
+		public String parse(File image) throws Exception {
+			count++;
+			return new String(Files.readAllBytes(image.toPath()), StandardCharsets.UTF_8);
+		}
+	}
+
+	private Path directory;
+	private Path cacheFile;
+	private File image;
+	private final CountingParser parser = new CountingParser();
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("firmware-cache");
+		cacheFile = directory.resolve("cache");
+		image = directory.resolve("NUR-5.11-A.bin").toFile();
+		write("5.11-A", 1000);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		TestFiles.delete(directory);
+	}
+
+	private void write(String content, long modified) throws IOException {
+		Files.write(image.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(image.toPath(), FileTime.fromMillis(modified));
+	}
+
+	@Test
+	public void parseOnce() throws Exception {
+		FirmwareCache cache = new FirmwareCache(cacheFile);
+		assertEquals("5.11-A", cache.getVersion(image, "NUR2", parser));
+		assertEquals("5.11-A", cache.getVersion(image, "NUR2", parser));
+		assertEquals(1, parser.count);
+	}
+
+	@Test
+	public void persist() throws Exception {
+		new FirmwareCache(cacheFile).getVersion(image, "NUR2", parser);
+		assertEquals("5.11-A", new FirmwareCache(cacheFile).getVersion(image, "NUR2", parser));
+		assertEquals(1, parser.count);
+	}
+
+	@Test
+	public void invalidateOnSize() throws Exception {
+		FirmwareCache cache = new FirmwareCache(cacheFile);
+		cache.getVersion(image, "NUR2", parser);
+		write("5.12-AB", 1000);
+		assertEquals("5.12-AB", cache.getVersion(image, "NUR2", parser));
+		assertEquals(2, parser.count);
+	}
+
+	@Test
+	public void invalidateOnModificationTime() throws Exception {
+		FirmwareCache cache = new FirmwareCache(cacheFile);
+		cache.getVersion(image, "NUR2", parser);
+		// same size, different content
+		write("5.11-B", 2000);
+		assertEquals("5.11-B", cache.getVersion(image, "NUR2", parser));
+		assertEquals(2, parser.count);
+	}
+
+	@Test
+	public void identifyByContent() throws Exception {
+		FirmwareCache cache = new FirmwareCache(cacheFile);
+		cache.getVersion(image, "NUR2", parser);
+		// touched or copied, the hash is known
+		write("5.11-A", 3000);
+		File copy = directory.resolve("copy.bin").toFile();
+		Files.copy(image.toPath(), copy.toPath());
+		assertEquals("5.11-A", cache.getVersion(image, "NUR2", parser));
+		assertEquals("5.11-A", cache.getVersion(copy, "NUR2", parser));
+		assertEquals(1, parser.count);
+	}
+
+	@Test
+	public void separateModuleTypes() throws Exception {
+		FirmwareCache cache = new FirmwareCache(cacheFile);
+		cache.getVersion(image, "NUR2", parser);
+		cache.getVersion(image, "NUR3", parser);
+		assertEquals(2, parser.count);
+	}
+
+	@Test
+	public void ignoreCorruptCacheFile() throws Exception {
+		Files.write(cacheFile, new byte[] { 'a', '=', '\\', 'u', 'z' });
+		assertEquals("5.11-A", new FirmwareCache(cacheFile).getVersion(image, "NUR2", parser));
+	}
+
+	@Test
+	public void withoutFile() throws Exception {
+		FirmwareCache cache = new FirmwareCache(null);
+		assertEquals("5.11-A", cache.getVersion(image, "NUR2", parser));
+		assertEquals("5.11-A", cache.getVersion(image, "NUR2", parser));
+		assertEquals(1, parser.count);
+	}
+}
@@ -0,0 +1,54 @@
+package havis.device.rf.nur.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FirmwareVersionTest {
+
+	@Test
+	public void compareNumbers() {
+		assertTrue(FirmwareVersion.compare("5.9", "5.11") < 0);
+		assertTrue(FirmwareVersion.compare("5.11", "5.9") > 0);
+		assertTrue(FirmwareVersion.compare("6.0", "5.11") > 0);
+		assertEquals(0, FirmwareVersion.compare("5.11", "5.11"));
+		assertEquals(0, FirmwareVersion.compare("5.011", "5.11"));
+		assertTrue(FirmwareVersion.compare("5.12345678901234567890", "5.9") > 0);
+	}
+
+	@Test
+	public void compareSuffixes() {
+		assertTrue(FirmwareVersion.compare("5.11-A", "5.11") > 0);
+		assertTrue(FirmwareVersion.compare("5.11-A", "5.11-B") < 0);
+		assertEquals(0, FirmwareVersion.compare("5.11-A", "5.11-a"));
+		assertTrue(FirmwareVersion.compare("5.11-A", "5.9-B") > 0);
+		// a number is newer than a suffix
+		assertTrue(FirmwareVersion.compare("5.1.1", "5.1-A") > 0);
+	}
+
+	@Test
+	public void compareSeparators() {
+		assertEquals(0, FirmwareVersion.compare("5.11-A", "5.11A"));
+		assertEquals(0, FirmwareVersion.compare("5.11-A", "5_11 A"));
+		assertTrue(FirmwareVersion.compare(null, "5.11") < 0);
+		assertEquals(0, FirmwareVersion.compare(null, ""));
+	}
+
+	@Test
+	public void sort() {
+		List<String> versions = Arrays.asList("5.11", "5.9-B", "5.11-A", "5.9", "4.12");
+		versions.sort(FirmwareVersion.COMPARATOR);
+		assertEquals(Arrays.asList("4.12", "5.9", "5.9-B", "5.11", "5.11-A"), versions);
+	}
+
+	@Test
+	public void describe() {
+		assertEquals("newer", FirmwareVersion.describe("5.9", "5.11"));
+		assertEquals("same", FirmwareVersion.describe("5.11-A", "5.11-A"));
+		assertEquals("older", FirmwareVersion.describe("5.11-A", "5.11"));
+	}
+}
@@ -0,0 +1,156 @@
+package havis.device.rf.nur.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.nordicid.nurapi.NurEventIOChange;
+import com.nordicid.nurapi.NurEventTriggeredRead;
+
+public class IoWatcherTest {
+
+	private static NurEventIOChange ioChange(int source, int direction) {
+		NurEventIOChange event = new NurEventIOChange();
+		event.source = source;
+		event.direction = direction;
+		return event;
+	}
+
+	private static String[] lines(ByteArrayOutputStream output) {
+		String text = new String(output.toByteArray(), StandardCharsets.US_ASCII);
+		return text.isEmpty() ? new String[0] : text.split("\n");
+	}
+
+	@Test
+	public void roundCapacity() throws Exception {
+		IoWatcher watcher = new IoWatcher(5, false);
+		for (int i = 0; i < 10; i++)
+			watcher.ioChange(ioChange(i, 0));
+		assertEquals(2, watcher.getDropped());
+	}
+
+	@Test
+	public void dropWhenFull() throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		IoWatcher watcher = new IoWatcher(4, false);
+		watcher.addOutput(output);
+		// not started, nothing is consumed
+		for (int i = 0; i < 6; i++)
+			watcher.ioChange(ioChange(i, 1));
+		assertEquals(2, watcher.getDropped());
+
+		watcher.start();
+		watcher.stop();
+		String[] lines = lines(output);
+		assertEquals(4, lines.length);
+		for (int i = 0; i < 4; i++)
+			assertTrue(lines[i], lines[i].endsWith(" io source=" + i + " direction=1 sensor=false"));
+		assertEquals(4, watcher.getCount());
+	}
+
+	@Test
+	public void wrapAround() throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		IoWatcher watcher = new IoWatcher(4, true);
+		watcher.addOutput(output);
+		// fill and drain the ring several times, the slots are reused
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < 3; i++)
+				watcher.ioChange(ioChange(round * 3 + i, i % 2));
+			watcher.start();
+			watcher.stop();
+		}
+		String[] lines = lines(output);
+		assertEquals(15, lines.length);
+		for (int i = 0; i < lines.length; i++)
+			assertTrue(lines[i], lines[i].contains("\"type\":\"io\",\"source\":" + i + ","));
+		assertEquals(0, watcher.getDropped());
+		assertEquals(15, watcher.getCount());
+	}
+
+	@Test
+	public void concurrentProducer() throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		IoWatcher watcher = new IoWatcher(16, false);
+		watcher.addOutput(output);
+		watcher.start();
+		int events = 10000;
+		for (int i = 0; i < events; i++) {
+			watcher.ioChange(ioChange(i, 0));
+			if (i % 8 == 0)
+				Thread.yield();
+		}
+		watcher.stop();
+		// written events keep their order, dropped events leave gaps
+		String[] lines = lines(output);
+		assertEquals(events, lines.length + watcher.getDropped());
+		int previous = -1;
+		for (String line : lines) {
+			int start = line.indexOf("source=") + 7;
+			int source = Integer.parseInt(line.substring(start, line.indexOf(' ', start)));
+			assertTrue(source > previous);
+			previous = source;
+		}
+	}
+
+	@Test
+	public void formatTriggeredRead() throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		IoWatcher watcher = new IoWatcher(4, true);
+		watcher.addOutput(output);
+		NurEventTriggeredRead event = new NurEventTriggeredRead();
+		event.source = 2;
+		event.sensor = true;
+		event.antennaId = 1;
+		event.rssi = -60;
+		event.epc = "E2801160600002054A3BB3A6";
+		watcher.triggeredRead(event);
+		event.epc = null;
+		watcher.triggeredRead(event);
+		watcher.start();
+		watcher.stop();
+		String[] lines = lines(output);
+		assertEquals(2, lines.length);
+		assertTrue(lines[0], lines[0].matches("\\{\"time\":\\d+,\"type\":\"read\",\"source\":2,\"sensor\":true,"
+				+ "\"antenna\":1,\"rssi\":-60,\"epc\":\"E2801160600002054A3BB3A6\"\\}"));
+		assertTrue(lines[1], lines[1].endsWith(",\"epc\":null}"));
+	}
+
+	@Test
+	public void closeClientsOnStop() throws Exception {
+		int port;
+		try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			port = socket.getLocalPort();
+		}
+		IoWatcher watcher = new IoWatcher(4, false);
+		watcher.listen(port);
+		watcher.start();
+		try (Socket client = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			client.setSoTimeout(5000);
+			BufferedReader reader = new BufferedReader(
+					new InputStreamReader(client.getInputStream(), StandardCharsets.US_ASCII));
+			// the client is accepted in the background, send until it receives
+			String line = null;
+			for (int i = 0; i < 50 && line == null; i++) {
+				watcher.ioChange(ioChange(i, 0));
+				Thread.sleep(20);
+				if (client.getInputStream().available() > 0)
+					line = reader.readLine();
+			}
+			assertTrue(line, line != null && line.contains(" io source="));
+			watcher.stop();
+			// the remaining events and the end of the stream follow
+			while ((line = reader.readLine()) != null)
+				assertTrue(line, line.contains(" io source="));
+		}
+	}
+}
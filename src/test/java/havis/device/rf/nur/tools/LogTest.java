@@ -0,0 +1,131 @@
+package havis.device.rf.nur.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LogTest {
+
+	/**
+	 * Blocks writes until released, like a console which is not read
+	 */
+	private static class BlockedStream extends OutputStream {
+
+		final ByteArrayOutputStream data = new ByteArrayOutputStream();
+		final CountDownLatch released = new CountDownLatch(1);
+
+		@Override
+		public void write(int b) throws IOException {
+			try {
+				released.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			synchronized (data) {
+				data.write(b);
+			}
+		}
+
+		String text() {
+			synchronized (data) {
+				return new String(data.toByteArray(), StandardCharsets.UTF_8);
+			}
+		}
+	}
+
+	@Test
+	public void textFormat() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		Log log = new Log(new PrintStream(out, true), new PrintStream(err, true), Log.Level.INFO, false, 16);
+		log.log(Log.Level.DEBUG, "", "hidden");
+		log.log(Log.Level.INFO, "/dev/ttyACM0: ", "Connecting");
+		log.log(Log.Level.WARN, "", "Slow");
+		log.print("{\"antennaMask\":3}");
+		log.log(Log.Level.ERROR, "", "PROGRAM EXIT WITH ERROR: Failed");
+		assertTrue(log.flush(5, TimeUnit.SECONDS));
+
+		String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+		assertEquals(3, lines.length);
+		assertTrue(lines[0], lines[0].matches("\\d{4}-\\d\\d-\\d\\d \\d\\d:\\d\\d:\\d\\d\\.\\d{3}: /dev/ttyACM0: Connecting"));
+		assertTrue(lines[1], lines[1].endsWith(": WARN: Slow"));
+		assertEquals("{\"antennaMask\":3}", lines[2]);
+		// the error output is the same as before the asynchronous log
+		assertEquals("PROGRAM EXIT WITH ERROR: Failed\n", new String(err.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void jsonFormat() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		Log log = new Log(new PrintStream(out, true), new PrintStream(err, true), Log.Level.INFO, true, 16);
+		log.log(Log.Level.INFO, "/dev/ttyACM0: ", "Tag \"1\"\t");
+		log.raw("\n");
+		log.log(Log.Level.ERROR, "", "Failed");
+		assertTrue(log.flush(5, TimeUnit.SECONDS));
+
+		String line = new String(out.toByteArray(), StandardCharsets.UTF_8);
+		assertTrue(line, line.matches("\\{\"time\":\"[0-9T:.-]+\",\"level\":\"INFO\",\"device\":\"/dev/ttyACM0\","
+				+ "\"message\":\"Tag \\\\\"1\\\\\"\\\\t\"\\}\n"));
+		assertTrue(new String(err.toByteArray(), StandardCharsets.UTF_8).contains("\"level\":\"ERROR\""));
+	}
+
+	@Test
+	public void dropOnlyInfoWhenFull() throws Exception {
+		final BlockedStream out = new BlockedStream();
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		final Log log = new Log(new PrintStream(out, true), new PrintStream(err, true), Log.Level.INFO, false, 4);
+		final int lines = 20;
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < lines; i++) {
+					log.log(Log.Level.INFO, "", "info " + i);
+					log.print("data " + i);
+				}
+			}
+		});
+		producer.start();
+		// the producer waits for space for the data lines
+		producer.join(200);
+		assertTrue(producer.isAlive());
+
+		out.released.countDown();
+		producer.join(5000);
+		assertTrue(log.flush(5, TimeUnit.SECONDS));
+
+		String text = out.text();
+		for (int i = 0; i < lines; i++)
+			assertTrue("data " + i, text.contains("data " + i + "\n"));
+		assertTrue(text.indexOf("data 0\n") < text.indexOf("data " + (lines - 1) + "\n"));
+		String warning = new String(err.toByteArray(), StandardCharsets.UTF_8);
+		assertTrue(warning, warning.contains("log messages dropped"));
+	}
+
+	@Test
+	public void tryPrintDropsWhenFull() throws Exception {
+		BlockedStream out = new BlockedStream();
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		Log log = new Log(new PrintStream(out, true), new PrintStream(err, true), Log.Level.INFO, false, 4);
+		int queued = 0;
+		// the writer holds one line, so at most five lines are accepted
+		for (int i = 0; i < 20; i++)
+			if (log.tryPrint("data " + i))
+				queued++;
+		assertTrue(String.valueOf(queued), queued >= 4 && queued <= 5);
+
+		out.released.countDown();
+		assertTrue(log.flush(5, TimeUnit.SECONDS));
+		String warning = new String(err.toByteArray(), StandardCharsets.UTF_8);
+		assertTrue(warning, warning.contains((20 - queued) + " output lines dropped"));
+	}
+}
@@ -0,0 +1,124 @@
+package havis.device.rf.nur.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+public class MetricsTest {
+
+	@Test
+	public void emptyHistogram() {
+		Metrics.Histogram histogram = new Metrics.Histogram();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getQuantile(0.5));
+		assertEquals(0, histogram.getMax());
+	}
+
+	@Test
+	public void smallValuesAreExact() {
+		Metrics.Histogram histogram = new Metrics.Histogram();
+		for (int i = 0; i < 16; i++)
+			histogram.record(i);
+		assertEquals(7, histogram.getQuantile(0.5));
+		assertEquals(15, histogram.getQuantile(1));
+		assertEquals(0, histogram.getQuantile(0));
+		assertEquals(120, histogram.getSum());
+	}
+
+	@Test
+	public void quantileAccuracy() {
+		Metrics.Histogram histogram = new Metrics.Histogram();
+		for (long i = 1; i <= 1000000; i++)
+			histogram.record(i * 1000);
+		assertEquals(1000000, histogram.getCount());
+		assertEquals(1000000000L, histogram.getMax());
+		// the upper bound of the bucket is at most 1/16 above the value
+		assertWithin(500000000L, histogram.getQuantile(0.5), 1.0 / 16);
+		assertWithin(990000000L, histogram.getQuantile(0.99), 1.0 / 16);
+		assertWithin(1000L, histogram.getQuantile(0.000001), 1.0 / 16);
+	}
+
+	@Test
+	public void quantileCappedAtMax() {
+		Metrics.Histogram histogram = new Metrics.Histogram();
+		histogram.record(1000001);
+		assertEquals(1000001, histogram.getQuantile(0.5));
+		assertEquals(1000001, histogram.getQuantile(0.99));
+	}
+
+	@Test
+	public void largeAndNegativeValues() {
+		Metrics.Histogram histogram = new Metrics.Histogram();
+		histogram.record(Long.MAX_VALUE);
+		histogram.record(-5);
+		assertEquals(0, histogram.getQuantile(0.5));
+		assertEquals(Long.MAX_VALUE, histogram.getQuantile(1));
+	}
+
+	private static void assertWithin(long expected, long actual, double error) {
+		assertTrue(actual + " below " + expected, actual >= expected);
+		assertTrue(actual + " too far above " + expected, actual <= expected * (1 + error));
+	}
+
+	@Test
+	public void histogramByName() {
+		Metrics metrics = new Metrics();
+		assertTrue(metrics.isEmpty());
+		Metrics.Histogram histogram = metrics.histogram("tune");
+		assertSame(histogram, metrics.histogram("tune"));
+		metrics.record("tune", System.nanoTime());
+		assertFalse(metrics.isEmpty());
+		assertEquals(1, histogram.getCount());
+	}
+
+	@Test
+	public void summary() {
+		Metrics metrics = new Metrics();
+		metrics.histogram("b").record(2000000);
+		metrics.histogram("a").record(1000000);
+		final List<String> lines = new ArrayList<>();
+		metrics.summary(new Consumer<String>() {
+			@Override
+			public void accept(String line) {
+				lines.add(line);
+			}
+		});
+		assertEquals(3, lines.size());
+		assertTrue(lines.get(0).startsWith("Operation"));
+		assertTrue(lines.get(1), lines.get(1).matches("a +1 +1\\.00 +1\\.00 +1\\.00"));
+		assertTrue(lines.get(2), lines.get(2).matches("b +1 +2\\.00 +2\\.00 +2\\.00"));
+	}
+
+	@Test
+	public void writePrometheus() throws IOException {
+		Metrics metrics = new Metrics();
+		metrics.histogram("command \"-t\"").record(1500000000L);
+		Path directory = Files.createTempDirectory("metrics");
+		try {
+			Path file = directory.resolve("sub").resolve("nur.prom");
+			metrics.writePrometheus(file);
+			metrics.writePrometheus(file);
+			List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+			String labels = "operation=\"command \\\"-t\\\"\"";
+			assertTrue(lines.contains(
+					"havis_nur_tools_operation_duration_seconds{" + labels + ",quantile=\"0.5\"} 1.5"));
+			assertTrue(lines.contains("havis_nur_tools_operation_duration_seconds_sum{" + labels + "} 1.5"));
+			assertTrue(lines.contains("havis_nur_tools_operation_duration_seconds_count{" + labels + "} 1"));
+			assertTrue(lines.contains("havis_nur_tools_operation_duration_max_seconds{" + labels + "} 1.5"));
+			assertFalse(Files.exists(file.resolveSibling("nur.prom.tmp")));
+		} finally {
+			TestFiles.delete(directory);
+		}
+	}
+}
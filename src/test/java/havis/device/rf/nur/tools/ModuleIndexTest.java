@@ -0,0 +1,148 @@
+package havis.device.rf.nur.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ModuleIndexTest {
+
+	private Path sys;
+	private Path indexFile;
+
+	@Before
+	public void setUp() throws IOException {
+		sys = Files.createTempDirectory("sys");
+		indexFile = sys.resolve("index");
+		Files.createDirectories(sys.resolve("class/tty"));
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		TestFiles.delete(sys);
+	}
+
+	/**
+	 * Creates the sysfs entries of an USB ACM device, the tty device links
+	 * to the USB interface below the USB device
+	 */
+	private void usbDevice(String tty, String port, String vendor, String product, String serial)
+			throws IOException {
+		Path usb = sys.resolve("devices/pci0000:00/usb1").resolve(port);
+		Path usbInterface = usb.resolve(port + ":1.0");
+		Files.createDirectories(usbInterface);
+		write(usb.resolve("idVendor"), vendor);
+		write(usb.resolve("idProduct"), product);
+		if (serial != null)
+			write(usb.resolve("serial"), serial);
+		Path ttyDir = sys.resolve("class/tty").resolve(tty);
+		Files.createDirectories(ttyDir);
+		Files.deleteIfExists(ttyDir.resolve("device"));
+		Files.createSymbolicLink(ttyDir.resolve("device"), usbInterface);
+	}
+
+	private static void write(Path file, String content) throws IOException {
+		Files.write(file, (content + "\n").getBytes(StandardCharsets.UTF_8));
+	}
+
+	private ModuleIndex index() {
+		return new ModuleIndex(sys, indexFile, ModuleIndex.DEFAULT_VENDOR_ID);
+	}
+
+	@Test
+	public void identify() throws IOException {
+		usbDevice("ttyACM0", "1-1", "04e6", "5111", "NUR123");
+		ModuleIndex.Module module = index().identify("/dev/ttyACM0");
+		assertEquals("/dev/ttyACM0", module.device);
+		assertEquals("04e6", module.vendorId);
+		assertEquals("5111", module.productId);
+		assertEquals("NUR123", module.serial);
+		assertEquals("/dev/ttyACM0 [04e6:5111, serial=NUR123]", module.toString());
+	}
+
+	@Test
+	public void identifyWithoutSerial() throws IOException {
+		usbDevice("ttyACM0", "1-1", "04e6", "5111", null);
+		ModuleIndex.Module module = index().identify("/dev/ttyACM0");
+		assertEquals("5111", module.productId);
+		assertNull(module.serial);
+	}
+
+	@Test
+	public void identifyUnknownDevice() throws IOException {
+		// no sysfs entry, e.g. a serial port without USB
+		assertNull(index().identify("/dev/ttyACM7"));
+		assertTrue(index().isModule("/dev/ttyACM7"));
+	}
+
+	@Test
+	public void otherVendor() throws IOException {
+		usbDevice("ttyACM1", "1-2", "2341", "0043", "ARDUINO");
+		ModuleIndex index = index();
+		assertFalse(index.isModule("/dev/ttyACM1"));
+		assertTrue(index.scan(Arrays.asList("/dev/ttyACM1")).isEmpty());
+		assertFalse(Files.exists(indexFile));
+	}
+
+	@Test
+	public void matches() throws IOException {
+		usbDevice("ttyACM0", "1-1", "04e6", "5111", "NUR123");
+		ModuleIndex index = index();
+		assertTrue(index.matches("/dev/ttyACM0", "NUR123"));
+		assertFalse(index.matches("/dev/ttyACM0", "NUR456"));
+		assertFalse(index.matches("/dev/ttyACM1", "NUR123"));
+	}
+
+	@Test
+	public void scanAndLookup() throws IOException {
+		usbDevice("ttyACM0", "1-1", "04e6", "5111", "NUR123");
+		usbDevice("ttyACM1", "1-2", "2341", "0043", "ARDUINO");
+		usbDevice("ttyACM2", "1-3", "04E6", "5112", "NUR456");
+		List<ModuleIndex.Module> modules = index()
+				.scan(Arrays.asList("/dev/ttyACM0", "/dev/ttyACM1", "/dev/ttyACM2"));
+		assertEquals(2, modules.size());
+		assertEquals("NUR123", modules.get(0).serial);
+		assertEquals("NUR456", modules.get(1).serial);
+
+		// the persisted index is read by the next run
+		ModuleIndex index = index();
+		assertEquals("/dev/ttyACM0", index.lookup("NUR123"));
+		assertEquals("/dev/ttyACM2", index.lookup("NUR456"));
+		assertNull(index.lookup("ARDUINO"));
+		assertNull(index.lookup("NUR789"));
+	}
+
+	@Test
+	public void lookupStaleDevice() throws IOException {
+		usbDevice("ttyACM0", "1-1", "04e6", "5111", "NUR123");
+		index().scan(Arrays.asList("/dev/ttyACM0"));
+		// the module was replaced, the device belongs to another module now
+		usbDevice("ttyACM0", "1-2", "04e6", "5111", "NUR456");
+		ModuleIndex index = index();
+		assertNull(index.lookup("NUR123"));
+
+		// the module moved and is recorded again
+		usbDevice("ttyACM1", "1-1", "04e6", "5111", "NUR123");
+		index.update("NUR123", "/dev/ttyACM1");
+		assertEquals("/dev/ttyACM1", index().lookup("NUR123"));
+	}
+
+	@Test
+	public void withoutIndexFile() throws IOException {
+		usbDevice("ttyACM0", "1-1", "04e6", "5111", "NUR123");
+		ModuleIndex index = new ModuleIndex(sys, null, ModuleIndex.DEFAULT_VENDOR_ID);
+		index.scan(Arrays.asList("/dev/ttyACM0"));
+		assertEquals("/dev/ttyACM0", index.lookup("NUR123"));
+	}
+}
@@ -0,0 +1,14 @@
+package havis.device.rf.nur.tools;
+
+/**
+ * Runs the tool against simulated modules instead of hardware, e.g. to try
+ * commands or scripts. The modules are configured by the system properties
+ * described in {@link SimulatedNurApi}.
+ */
+public class SimulatedMain {
+
+	public static void main(String[] args) {
+		Main.setModules(new SimulatedNurApi.Discovery(null), SimulatedNurApi.FACTORY);
+		Main.main(args);
+	}
+}
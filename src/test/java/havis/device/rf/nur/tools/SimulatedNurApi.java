@@ -0,0 +1,859 @@
+package havis.device.rf.nur.tools;
+
+import java.io.File;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import com.nordicid.nurapi.NurApi;
+import com.nordicid.nurapi.NurApiException;
+import com.nordicid.nurapi.NurApiListener;
+import com.nordicid.nurapi.NurEventIOChange;
+import com.nordicid.nurapi.NurEventInventory;
+import com.nordicid.nurapi.NurEventProgrammingProgress;
+import com.nordicid.nurapi.NurGPIOConfig;
+import com.nordicid.nurapi.NurIRConfig;
+import com.nordicid.nurapi.NurRespDevCaps;
+import com.nordicid.nurapi.NurRespGPIOStatus;
+import com.nordicid.nurapi.NurRespReaderInfo;
+import com.nordicid.nurapi.NurRespRegionInfo;
+import com.nordicid.nurapi.NurSetup;
+import com.nordicid.nurapi.NurTag;
+import com.nordicid.nurapi.NurTagStorage;
+import com.nordicid.nurapi.NurTuneResponse;
+import com.nordicid.nurapi.ReflectedPower;
+
+/**
+ * An API connected to an in-process simulated module instead of a serial
+ * transport, created by {@link #FACTORY}. The {@link Discovery} finds the
+ * devices <code>sim:0</code> to <code>sim:N-1</code>, N is set with the
+ * system property <code>havis.device.rf.nur.tools.simulate</code> and
+ * defaults to one. {@link SimulatedMain} runs the tool against the
+ * simulated modules. The state of
+ * a module survives reconnects: mode, volatile and stored setup, GPIO
+ * configuration and states, IR configuration, baud rate and firmware
+ * versions. A reboot into the other mode restores the stored setup. The
+ * behaviour is configured with system properties prefixed with
+ * <code>havis.device.rf.nur.tools.sim.</code>:
+ * <ul>
+ * <li><code>latency</code>: the response time of a command in milliseconds
+ * <li><code>errorRate</code>: the probability that a command fails
+ * <li><code>pageTime</code>: the time to write a flash page in milliseconds,
+ * the transfer time of the page at the current baud rate is added
+ * <li><code>bootTime</code>: the time a module is not available after a mode
+ * switch in milliseconds
+ * <li><code>antennas</code>: the mask of the connected antennas
+ * <li><code>tags</code>: the number of tags in the field
+ * <li><code>roundTime</code>: the duration of an inventory round in
+ * milliseconds
+ * <li><code>streamTime</code>: the time after which the module stops an
+ * inventory stream in milliseconds
+ * <li><code>ioInterval</code>: the interval of input changes in
+ * milliseconds, 0 to disable them
+ * <li><code>version</code>: the initial firmware version
+ * </ul>
+ */
+class SimulatedNurApi extends NurApi {
+
+	static final String PREFIX = "sim:";
+	static final int MODULES = Integer.getInteger("havis.device.rf.nur.tools.simulate", 1);
+
+	/**
+	 * Creates APIs of simulated modules, changing the baud rate reopens the
+	 * host side of the link
+	 */
+	static final NurApiFactory FACTORY = new NurApiFactory() {
+		@Override
+		public NurApi create(String device, int baudrate) {
+			return new SimulatedNurApi(device, baudrate);
+		}
+
+		@Override
+		public void setBaudrate(NurApi nurApi, String device, int baudrate) {
+			Module module = module(device);
+			synchronized (module) {
+				module.hostBaudrate = baudrate;
+			}
+		}
+	};
+
+	private static final String PROPERTY = "havis.device.rf.nur.tools.sim.";
+	private static final long LATENCY = Long.getLong(PROPERTY + "latency", 2);
+	private static final double ERROR_RATE = Double.parseDouble(System.getProperty(PROPERTY + "errorRate", "0"));
+	private static final long PAGE_TIME = Long.getLong(PROPERTY + "pageTime", 10);
+	private static final long BOOT_TIME = Long.getLong(PROPERTY + "bootTime", 0);
+	private static final int ANTENNAS = Integer.decode(System.getProperty(PROPERTY + "antennas", "0x3"));
+	private static final int TAGS = Integer.getInteger(PROPERTY + "tags", 200);
+	private static final long ROUND_TIME = Long.getLong(PROPERTY + "roundTime", 50);
+	private static final long STREAM_TIME = Long.getLong(PROPERTY + "streamTime", 20000);
+	private static final long IO_INTERVAL = Long.getLong(PROPERTY + "ioInterval", 0);
+	private static final String VERSION = System.getProperty(PROPERTY + "version", "5.11-A");
+	private static final String BOOT_LOADER_VERSION = "5.0-B";
+
+	/* error codes of simulated failures */
+	private static final int ERROR_INVALID_COMMAND = 1;
+	private static final int ERROR_INVALID_PARAMETER = 5;
+	private static final int ERROR_NOT_CONNECTED = 0x1000;
+	private static final int ERROR_TIMEOUT = 0x1002;
+
+	private static final int PAGE_SIZE = 2048;
+	private static final int GPIOS = 5;
+	private static final int DIVIDER = 1000;
+	private static final double READ_PROBABILITY = 0.9;
+	private static final int EU_FREQUENCY = 866900;
+	private static final int[] FCC_FREQUENCIES = new int[] { 902750, 906750, 910750, 914750, 918750, 922750 };
+
+	private static final Map<String, Module> MODULE_STATES = new HashMap<>();
+
+	/**
+	 * The state of a simulated module, guarded by its monitor
+	 */
+	private static class Module {
+		final String serial;
+		String mode = "A";
+		String version = VERSION;
+		String bootLoaderVersion = BOOT_LOADER_VERSION;
+		int baudrate = BaudRateNegotiator.DEFAULT_BAUDRATE;
+		/* the baud rate of the host side of the link */
+		int hostBaudrate = BaudRateNegotiator.DEFAULT_BAUDRATE;
+		long availableAt;
+		NurSetup setup = new NurSetup();
+		NurSetup storedSetup;
+		NurGPIOConfig[] gpio = new NurGPIOConfig[GPIOS];
+		NurGPIOConfig[] storedGpio;
+		boolean[] states = new boolean[GPIOS];
+		NurIRConfig irConfig = new NurIRConfig();
+		final byte[][] tags = new byte[TAGS][];
+
+		Module(String serial, int index) {
+			this.serial = serial;
+			setup.regionId = REGIONID_EU;
+			setup.antennaMask = ANTENNAMASK_1;
+			for (int i = 0; i < GPIOS; i++) {
+				gpio[i] = new NurGPIOConfig();
+				gpio[i].available = true;
+				gpio[i].type = GPIO_TYPE_INPUT;
+				gpio[i].edge = GPIO_EDGE_FALLING;
+			}
+			storedSetup = copy(setup);
+			storedGpio = copy(gpio);
+			// distinct EPCs per module
+			for (int i = 0; i < TAGS; i++) {
+				byte[] epc = new byte[12];
+				epc[0] = (byte) 0xE2;
+				epc[6] = (byte) index;
+				for (int b = 0; b < 4; b++)
+					epc[11 - b] = (byte) (i >>> (8 * b));
+				tags[i] = epc;
+			}
+		}
+
+		/**
+		 * Restarts the module in a mode, the volatile settings are lost
+		 */
+		void reboot(String mode) {
+			this.mode = mode;
+			baudrate = BaudRateNegotiator.DEFAULT_BAUDRATE;
+			availableAt = System.currentTimeMillis() + BOOT_TIME;
+			setup = copy(storedSetup);
+			gpio = copy(storedGpio);
+			states = new boolean[GPIOS];
+		}
+	}
+
+	/**
+	 * Discovers the simulated modules
+	 */
+	static class Discovery extends DeviceDiscovery {
+
+		private final Predicate<String> filter;
+
+		Discovery(Predicate<String> filter) {
+			super(PREFIX, filter);
+			this.filter = filter;
+		}
+
+		@Override
+		public DeviceDiscovery filter(Predicate<String> filter) {
+			return new Discovery(this.filter != null ? this.filter.and(filter) : filter);
+		}
+
+		@Override
+		public DeviceDiscovery hint(Supplier<String> hint) {
+			// simulated modules are found without scanning
+			return this;
+		}
+
+		@Override
+		public List<String> findAll() {
+			List<String> devices = new ArrayList<>(MODULES);
+			for (int i = 0; i < MODULES; i++) {
+				String device = PREFIX + i;
+				if (filter == null || filter.test(device))
+					devices.add(device);
+			}
+			return devices;
+		}
+
+		@Override
+		public String await(String device, long timeout, TimeUnit unit) throws InterruptedException {
+			// simulated modules always exist, connecting waits for booting
+			// modules
+			if (device == null)
+				return find();
+			return findAll().contains(device) ? device : null;
+		}
+	}
+
+	private final Module module;
+	private final NurTagStorage storage = new NurTagStorage();
+	private volatile NurApiListener listener;
+	private volatile boolean connected;
+	private volatile boolean streaming;
+	private volatile Thread stream;
+	private Thread inputs;
+
+	/**
+	 * Creates a new API for a simulated module
+	 *
+	 * @param device
+	 *            the device, e.g. sim:0
+	 * @param baudrate
+	 *            the baud rate of the host
+	 */
+	SimulatedNurApi(String device, int baudrate) {
+		this.module = module(device);
+		synchronized (module) {
+			module.hostBaudrate = baudrate;
+		}
+	}
+
+	private static synchronized Module module(String device) {
+		Module module = MODULE_STATES.get(device);
+		if (module == null) {
+			int index;
+			try {
+				index = Integer.parseInt(device.substring(PREFIX.length()));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid simulated device: " + device);
+			}
+			module = new Module(String.format("SIM%06d", index), index);
+			MODULE_STATES.put(device, module);
+		}
+		return module;
+	}
+
+	@Override
+	public void setListener(NurApiListener listener) {
+		super.setListener(listener);
+		this.listener = listener;
+	}
+
+	@Override
+	public void connect() throws Exception {
+		sleep(LATENCY);
+		String mode;
+		synchronized (module) {
+			if (System.currentTimeMillis() < module.availableAt)
+				throw new NurApiException("Module is booting", ERROR_NOT_CONNECTED);
+			mode = module.mode;
+		}
+		connected = true;
+		NurApiListener listener = this.listener;
+		if (listener != null)
+			listener.connectedEvent();
+		if (IO_INTERVAL > 0 && mode.equals("A"))
+			startInputs();
+	}
+
+	@Override
+	public void disconnect() throws Exception {
+		if (!connected)
+			return;
+		connected = false;
+		stopStream();
+		stopInputs();
+		NurApiListener listener = this.listener;
+		if (listener != null)
+			listener.disconnectedEvent();
+	}
+
+	@Override
+	public boolean isConnected() {
+		return connected;
+	}
+
+	@Override
+	public void dispose() {
+		try {
+			disconnect();
+		} catch (Exception e) {
+		}
+		super.dispose();
+	}
+
+	@Override
+	public String getMode() throws Exception {
+		command();
+		synchronized (module) {
+			return module.mode;
+		}
+	}
+
+	@Override
+	public NurRespReaderInfo getReaderInfo() throws Exception {
+		command();
+		NurRespReaderInfo info = new NurRespReaderInfo();
+		synchronized (module) {
+			info.serial = module.serial;
+			info.altSerial = module.serial;
+			info.name = Main.MODULE_TYPE;
+			info.hwVersion = "SIM";
+			info.swVersion = module.mode.equals("A") ? module.version : module.bootLoaderVersion;
+		}
+		info.numAntennas = 4;
+		return info;
+	}
+
+	@Override
+	public void moduleBoot(boolean eth) throws Exception {
+		command();
+		reboot("B");
+	}
+
+	@Override
+	public void exitBootLoader() throws Exception {
+		command();
+		reboot("A");
+	}
+
+	private void reboot(String mode) throws Exception {
+		synchronized (module) {
+			module.reboot(mode);
+		}
+		// the module drops the connection while it restarts
+		disconnect();
+	}
+
+	@Override
+	public void programApplicationFile(String file) throws Exception {
+		program(file, false);
+	}
+
+	@Override
+	public void programBootloaderFile(String file) throws Exception {
+		program(file, true);
+	}
+
+	/**
+	 * Programs an image page by page. Each page takes the transfer time at
+	 * the current baud rate and the flash write time.
+	 */
+	private void program(String file, boolean bootLoader) throws Exception {
+		bootLoader();
+		String version = checkNurFwBinaryFile(file, Main.MODULE_TYPE).getVersion();
+		int totalPages = (int) ((new File(file).length() + PAGE_SIZE - 1) / PAGE_SIZE);
+		long pageTime;
+		synchronized (module) {
+			pageTime = BaudRateNegotiator.estimateTransferTime(PAGE_SIZE, module.hostBaudrate) + PAGE_TIME;
+		}
+		for (int page = 0; page < totalPages; page++) {
+			sleep(pageTime);
+			NurEventProgrammingProgress event = new NurEventProgrammingProgress();
+			event.currentPage = page;
+			event.totalPages = totalPages;
+			boolean failed = fails();
+			if (failed)
+				event.error = ERROR_TIMEOUT;
+			NurApiListener listener = this.listener;
+			if (listener != null)
+				listener.programmingProgressEvent(event);
+			if (failed)
+				throw new NurApiException("Simulated error while programming page " + page, ERROR_TIMEOUT);
+		}
+		synchronized (module) {
+			if (bootLoader)
+				module.bootLoaderVersion = version;
+			else
+				module.version = version;
+		}
+	}
+
+	@Override
+	public NurSetup getModuleSetup() throws Exception {
+		application();
+		synchronized (module) {
+			return copy(module.setup);
+		}
+	}
+
+	@Override
+	public NurSetup getModuleSetup(int flags) throws Exception {
+		return getModuleSetup();
+	}
+
+	@Override
+	public NurSetup setModuleSetup(NurSetup setup, int flags) throws Exception {
+		application();
+		synchronized (module) {
+			if ((flags & SETUP_ANTMASK) != 0 && setup.antennaMask == 0)
+				throw new NurApiException("Invalid antenna mask", ERROR_INVALID_PARAMETER);
+			assign(setup, module.setup, flags);
+			return copy(module.setup);
+		}
+	}
+
+	@Override
+	public int getSetupAntennaMask() throws Exception {
+		application();
+		synchronized (module) {
+			return module.setup.antennaMask;
+		}
+	}
+
+	@Override
+	public void setSetupAntennaMask(int mask) throws Exception {
+		application();
+		if (mask == 0)
+			throw new NurApiException("Invalid antenna mask", ERROR_INVALID_PARAMETER);
+		synchronized (module) {
+			module.setup.antennaMask = mask;
+		}
+	}
+
+	@Override
+	public void storeSetup(int flags) throws Exception {
+		application();
+		sleep(PAGE_TIME);
+		boolean all = flags == STORE_ALL;
+		synchronized (module) {
+			if (all || (flags & STORE_RF) != 0)
+				module.storedSetup = copy(module.setup);
+			if (all || (flags & STORE_GPIO) != 0)
+				module.storedGpio = copy(module.gpio);
+		}
+	}
+
+	@Override
+	public NurTuneResponse[] tuneEUBand(int antenna, boolean save) throws Exception {
+		return tune(antenna, new int[] { EU_FREQUENCY });
+	}
+
+	@Override
+	public NurTuneResponse[] tuneFCCBands(int antenna, boolean save) throws Exception {
+		return tune(antenna, FCC_FREQUENCIES);
+	}
+
+	private NurTuneResponse[] tune(int antenna, int[] frequencies) throws Exception {
+		application();
+		int mask;
+		synchronized (module) {
+			mask = module.setup.antennaMask;
+		}
+		NurTuneResponse[] responses = new NurTuneResponse[frequencies.length];
+		for (int i = 0; i < frequencies.length; i++) {
+			// tuning a band takes several measurements
+			sleep(10 * LATENCY);
+			responses[i] = new NurTuneResponse();
+			responses[i].antenna = antenna;
+			responses[i].frequency = frequencies[i];
+			// measured on the first selected antenna
+			responses[i].dBm = (float) reflectedPower(Integer.numberOfTrailingZeros(mask));
+			responses[i].reflPower = (int) (responses[i].dBm * 1000);
+		}
+		return responses;
+	}
+
+	@Override
+	public ReflectedPower getReflectedPower() throws Exception {
+		application();
+		int mask;
+		synchronized (module) {
+			mask = module.setup.antennaMask;
+		}
+		// measured on the first selected antenna
+		double db = reflectedPower(Integer.numberOfTrailingZeros(mask));
+		double amplitude = DIVIDER * Math.pow(10, db / 20);
+		double phase = ThreadLocalRandom.current().nextDouble(2 * Math.PI);
+		ReflectedPower power = new ReflectedPower();
+		power.iPart = (int) Math.round(amplitude * Math.cos(phase));
+		power.qPart = (int) Math.round(amplitude * Math.sin(phase));
+		power.divider = DIVIDER;
+		power.freqKhz = EU_FREQUENCY;
+		return power;
+	}
+
+	/**
+	 * @return the reflected power in dB, low for connected antennas
+	 */
+	private static double reflectedPower(int antenna) {
+		Random random = ThreadLocalRandom.current();
+		if ((ANTENNAS & (1 << antenna)) != 0)
+			return -20 + 2 * random.nextGaussian();
+		return -1.5 + 0.3 * random.nextGaussian();
+	}
+
+	@Override
+	public NurGPIOConfig[] getGPIOConfigure() throws Exception {
+		application();
+		synchronized (module) {
+			return copy(module.gpio);
+		}
+	}
+
+	@Override
+	public void setGPIOConfigure(NurGPIOConfig[] config) throws Exception {
+		application();
+		if (config.length != GPIOS)
+			throw new NurApiException("Invalid number of GPIOs: " + config.length, ERROR_INVALID_PARAMETER);
+		synchronized (module) {
+			module.gpio = copy(config);
+		}
+	}
+
+	@Override
+	public NurRespGPIOStatus getGPIOStatus(int io) throws Exception {
+		application();
+		checkGpio(io);
+		NurRespGPIOStatus status = new NurRespGPIOStatus();
+		synchronized (module) {
+			status.enabled = module.gpio[io].enabled;
+			status.type = module.gpio[io].type;
+			status.state = module.states[io];
+		}
+		return status;
+	}
+
+	@Override
+	public void setGPIOStatus(int io, boolean state) throws Exception {
+		application();
+		checkGpio(io);
+		synchronized (module) {
+			if (module.gpio[io].type != GPIO_TYPE_OUTPUT)
+				throw new NurApiException("GPIO " + io + " is not an output", ERROR_INVALID_PARAMETER);
+			module.states[io] = state;
+		}
+	}
+
+	private static void checkGpio(int io) throws NurApiException {
+		if (io < 0 || io >= GPIOS)
+			throw new NurApiException("Invalid GPIO " + io, ERROR_INVALID_PARAMETER);
+	}
+
+	@Override
+	public NurIRConfig getIRConfig() throws Exception {
+		application();
+		synchronized (module) {
+			return copy(module.irConfig);
+		}
+	}
+
+	@Override
+	public void setIRConfig(NurIRConfig config) throws Exception {
+		application();
+		synchronized (module) {
+			module.irConfig = copy(config);
+		}
+	}
+
+	@Override
+	public NurRespDevCaps getDeviceCaps() throws Exception {
+		application();
+		return new NurRespDevCaps();
+	}
+
+	@Override
+	public NurRespRegionInfo getRegionInfo() throws Exception {
+		application();
+		return new NurRespRegionInfo();
+	}
+
+	@Override
+	public int getBaudrate() throws Exception {
+		command();
+		synchronized (module) {
+			for (int i = 0; i < NurApiLink.SETTINGS.length; i++)
+				if (NurApiLink.SETTINGS[i] == module.baudrate)
+					return i;
+		}
+		return 0;
+	}
+
+	@Override
+	public void setBaudrate(int setting) throws Exception {
+		command();
+		if (setting < 0 || setting >= NurApiLink.SETTINGS.length)
+			throw new NurApiException("Invalid baud rate setting " + setting, ERROR_INVALID_PARAMETER);
+		synchronized (module) {
+			module.baudrate = NurApiLink.SETTINGS[setting];
+		}
+	}
+
+	@Override
+	public NurTagStorage getStorage() {
+		return storage;
+	}
+
+	@Override
+	public void clearIdBuffer() throws Exception {
+		command();
+	}
+
+	@Override
+	public synchronized void startInventoryStream() throws Exception {
+		application();
+		if (streaming)
+			return;
+		streaming = true;
+		stream = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				stream();
+			}
+		}, "simulated-stream");
+		stream.setDaemon(true);
+		stream.start();
+	}
+
+	@Override
+	public void stopInventoryStream() throws Exception {
+		command();
+		stopStream();
+	}
+
+	@Override
+	public boolean isInventoryStreamRunning() {
+		return streaming;
+	}
+
+	private void stopStream() throws InterruptedException {
+		Thread thread;
+		synchronized (this) {
+			streaming = false;
+			thread = stream;
+			stream = null;
+		}
+		if (thread != null && thread != Thread.currentThread()) {
+			thread.interrupt();
+			thread.join();
+		}
+	}
+
+	/**
+	 * Runs inventory rounds until the stream is stopped or times out. Each
+	 * tag is read with a fixed probability per round on one of the selected
+	 * antennas.
+	 */
+	private void stream() {
+		Random random = ThreadLocalRandom.current();
+		long start = System.currentTimeMillis();
+		byte[][] tags = module.tags;
+		while (stream == Thread.currentThread()) {
+			try {
+				Thread.sleep(ROUND_TIME);
+			} catch (InterruptedException e) {
+				return;
+			}
+			int mask;
+			synchronized (module) {
+				mask = module.setup.antennaMask;
+			}
+			int now = (int) (System.currentTimeMillis() - start);
+			int added = 0;
+			synchronized (storage) {
+				for (byte[] epc : tags) {
+					if (random.nextDouble() >= READ_PROBABILITY)
+						continue;
+					int rssi = -40 - random.nextInt(30);
+					if (storage.addTag(new NurTag(now, rssi, 100 + rssi, antenna(mask, random), EU_FREQUENCY, epc)))
+						added++;
+				}
+			}
+			NurEventInventory event = new NurEventInventory();
+			event.rounds = 1;
+			event.tagsAdded = added;
+			event.stopped = now >= STREAM_TIME;
+			if (event.stopped) {
+				synchronized (this) {
+					if (stream == Thread.currentThread()) {
+						streaming = false;
+						stream = null;
+					}
+				}
+			}
+			NurApiListener listener = this.listener;
+			if (listener != null)
+				listener.inventoryStreamEvent(event);
+		}
+	}
+
+	/**
+	 * @return a random antenna ID of the mask
+	 */
+	private static int antenna(int mask, Random random) {
+		int count = Integer.bitCount(mask);
+		if (count == 0)
+			return 0;
+		int n = random.nextInt(count);
+		for (int antenna = 0;; antenna++) {
+			if ((mask & (1 << antenna)) != 0 && n-- == 0)
+				return antenna;
+		}
+	}
+
+	private synchronized void startInputs() {
+		if (inputs != null)
+			return;
+		inputs = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				toggleInputs();
+			}
+		}, "simulated-inputs");
+		inputs.setDaemon(true);
+		inputs.start();
+	}
+
+	private void stopInputs() throws InterruptedException {
+		Thread thread;
+		synchronized (this) {
+			thread = inputs;
+			inputs = null;
+		}
+		if (thread != null && thread != Thread.currentThread()) {
+			thread.interrupt();
+			thread.join();
+		}
+	}
+
+	/**
+	 * Toggles a random enabled input periodically and reports the change if
+	 * the edge matches
+	 */
+	private void toggleInputs() {
+		Random random = ThreadLocalRandom.current();
+		while (connected) {
+			try {
+				Thread.sleep(IO_INTERVAL);
+			} catch (InterruptedException e) {
+				return;
+			}
+			int io = random.nextInt(GPIOS);
+			boolean state;
+			int edge;
+			synchronized (module) {
+				NurGPIOConfig config = module.gpio[io];
+				if (!config.enabled || config.type != GPIO_TYPE_INPUT)
+					continue;
+				state = module.states[io] = !module.states[io];
+				edge = config.edge;
+			}
+			if (edge != GPIO_EDGE_BOTH && (edge == GPIO_EDGE_RISING) != state)
+				continue;
+			NurEventIOChange event = new NurEventIOChange();
+			event.source = io;
+			event.direction = state ? 1 : 0;
+			NurApiListener listener = this.listener;
+			if (listener != null)
+				listener.IOChangeEvent(event);
+		}
+	}
+
+	/**
+	 * Simulates the transfer of a command and its response
+	 */
+	private void command() throws Exception {
+		if (!connected)
+			throw new NurApiException("Transport not connected", ERROR_NOT_CONNECTED);
+		boolean matching;
+		synchronized (module) {
+			matching = module.baudrate == module.hostBaudrate;
+		}
+		sleep(LATENCY);
+		if (!matching)
+			throw new NurApiException("No response from module", ERROR_TIMEOUT);
+		if (fails())
+			throw new NurApiException("Simulated error", ERROR_TIMEOUT);
+	}
+
+	private void application() throws Exception {
+		command();
+		synchronized (module) {
+			if (!module.mode.equals("A"))
+				throw new NurApiException("Command not supported by the boot loader", ERROR_INVALID_COMMAND);
+		}
+	}
+
+	private void bootLoader() throws Exception {
+		command();
+		synchronized (module) {
+			if (!module.mode.equals("B"))
+				throw new NurApiException("Command only supported by the boot loader", ERROR_INVALID_COMMAND);
+		}
+	}
+
+	private static boolean fails() {
+		return ERROR_RATE > 0 && ThreadLocalRandom.current().nextDouble() < ERROR_RATE;
+	}
+
+	private static void sleep(long millis) throws InterruptedException {
+		if (millis > 0)
+			Thread.sleep(millis);
+	}
+
+	/**
+	 * Copies the setup fields selected by the flags, fields without flag are
+	 * always copied
+	 */
+	private static void assign(NurSetup source, NurSetup target, int flags) {
+		for (Field field : NurSetup.class.getFields()) {
+			if (Modifier.isStatic(field.getModifiers()))
+				continue;
+			int flag = ConfigSnapshot.getSetupFlag(field.getName());
+			if (flag != 0 && (flags & flag) == 0)
+				continue;
+			try {
+				field.set(target, copy(field.get(source)));
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/**
+	 * Copies API objects and arrays deeply, other values are immutable
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> T copy(T value) {
+		if (value == null)
+			return null;
+		Class<?> clazz = value.getClass();
+		try {
+			if (clazz.isArray()) {
+				int length = Array.getLength(value);
+				Object copy = Array.newInstance(clazz.getComponentType(), length);
+				for (int i = 0; i < length; i++)
+					Array.set(copy, i, copy(Array.get(value, i)));
+				return (T) copy;
+			}
+			if (!clazz.getName().startsWith("com.nordicid"))
+				return value;
+			Object copy = clazz.newInstance();
+			for (Field field : clazz.getFields())
+				if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isFinal(field.getModifiers()))
+					field.set(copy, copy(field.get(value)));
+			return (T) copy;
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Failed to copy " + clazz.getName(), e);
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package havis.device.rf.nur.tools;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Helpers for tests working on temporary directories
+ */
+class TestFiles {
+
+	private TestFiles() {
+	}
+
+	/**
+	 * Deletes a directory recursively
+	 *
+	 * @param directory
+	 *            the directory
+	 * @throws IOException
+	 *             if a file could not be deleted
+	 */
+	static void delete(Path directory) throws IOException {
+		if (directory == null || !Files.exists(directory))
+			return;
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}